@@ -0,0 +1,38 @@
+package unij;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compares the String based message building with pooled buffer encoding.
+ * Run with "gradle jmh", the gc profiler reports the allocation rate of both.
+ */
+
+@State(Scope.Thread)
+public class EncodingBenchmark {
+
+	private static final ObjectWriter writer = new ObjectMapper().writer();
+
+	private final Object[] parameters = {"tick", 42, 1.5, new int[]{1, 2, 3, 4, 5, 6, 7, 8}};
+
+	@Benchmark
+	public byte[] stringMessage() throws Exception {
+		// What UniJEndpoint.buildMessage does plus the UTF-8 encoding of the text frame in Jetty
+		String message = "{\"pro\":\"" + "update" + "\",\"par\":" + writer.writeValueAsString(parameters) + "}";
+		return message.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public int pooledMessage() throws Exception {
+		ByteBuffer message = UniJEncoder.encode("update", parameters);
+		int length = message.remaining();
+		UniJEncoder.release(message);
+		return length;
+	}
+}
@@ -0,0 +1,49 @@
+package unij;
+
+/**
+ * Snapshot of the result cache of one procedure
+ */
+
+public final class CacheStatistics {
+
+	private final long hits;
+	private final long misses;
+	private final int entries;
+	private final long bytes;
+
+	CacheStatistics(long hits, long misses, int entries, long bytes) {
+		this.hits = hits;
+		this.misses = misses;
+		this.entries = entries;
+		this.bytes = bytes;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public int getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @return      Approximate memory taken by keys and results
+	 */
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public double getHitRate() {
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+
+	@Override
+	public String toString() {
+		return "hits=" + hits + ", misses=" + misses + ", entries=" + entries + ", bytes=" + bytes;
+	}
+}
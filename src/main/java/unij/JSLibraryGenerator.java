@@ -24,10 +24,15 @@ public class JSLibraryGenerator {
 		String browserVersion = createBrowserVersion(sourceCode);
 
 		// Generate production versions
+		Files.createDirectories(Paths.get(buildDir));
 		Files.write(Paths.get(buildDir + I + "unij-client-nodejs-" + version + ".js"),
 				nodeJSVersion.getBytes());
 		Files.write(Paths.get(buildDir + I + "unij-client-browser-" + version + ".js"),
 				browserVersion.getBytes());
+		Files.write(Paths.get(buildDir + I + "unij-client-nodejs-" + version + ".min.js"),
+				minify(nodeJSVersion).getBytes());
+		Files.write(Paths.get(buildDir + I + "unij-client-browser-" + version + ".min.js"),
+				minify(browserVersion).getBytes());
 
 		// Delete all libraries in example
 		Files.list(Paths.get(exampleDir + I))
@@ -50,4 +55,71 @@ public class JSLibraryGenerator {
 	private static String createBrowserVersion(String sourceCode) {
 		return "\"use strict\";\n" + sourceCode + "\nvar UniJ = new UniJClient();";
 	}
+
+	/**
+	 * Strip comments, indentation and empty lines. Line breaks are kept so automatic semicolon
+	 * insertion behaves exactly like in the readable version
+	 * @param sourceCode        JavaScript source
+	 * @return                  Minified JavaScript source
+	 */
+
+	static String minify(String sourceCode) {
+		StringBuilder result = new StringBuilder(sourceCode.length());
+		StringBuilder line = new StringBuilder();
+
+		char quote = 0;            // Inside a string or regex literal if not 0
+		boolean blockComment = false;
+		char lastSignificant = '(';
+
+		for (int i = 0; i < sourceCode.length(); i++) {
+			char c = sourceCode.charAt(i);
+			char next = i + 1 < sourceCode.length() ? sourceCode.charAt(i + 1) : 0;
+
+			if (blockComment) {
+				if (c == '*' && next == '/') {
+					blockComment = false;
+					i++;
+				}
+			} else if (quote != 0) {
+				line.append(c);
+				if (c == '\\') {
+					line.append(next);
+					i++;
+				} else if (c == quote || c == '\n') {
+					quote = 0;
+				}
+			} else if (c == '/' && next == '/') {
+				// Skip to the end of the line
+				while (i + 1 < sourceCode.length() && sourceCode.charAt(i + 1) != '\n') {
+					i++;
+				}
+			} else if (c == '/' && next == '*') {
+				blockComment = true;
+				i++;
+			} else if (c == '\n') {
+				appendLine(result, line);
+				line.setLength(0);
+			} else {
+				// A slash after an operator starts a regex literal, otherwise it divides
+				if (c == '"' || c == '\'' || (c == '/' && "(,=:[!&|?{};".indexOf(lastSignificant) >= 0)) {
+					quote = c;
+				}
+				line.append(c);
+			}
+
+			if (!Character.isWhitespace(c)) {
+				lastSignificant = c;
+			}
+		}
+		appendLine(result, line);
+
+		return result.toString();
+	}
+
+	private static void appendLine(StringBuilder result, StringBuilder line) {
+		String trimmed = line.toString().trim();
+		if (!trimmed.isEmpty()) {
+			result.append(trimmed).append('\n');
+		}
+	}
 }
@@ -0,0 +1,25 @@
+package unij;
+
+/**
+ * Lane of an outgoing message. When several lanes of a client have messages waiting, each lane gets
+ * frames in proportion to its weight, a lane on its own gets the whole connection
+ */
+
+public enum Priority {
+
+	// Control messages and anything interactive
+	HIGH(8),
+
+	// Default for execute() and executeAll(), also used for replies so they stay behind the messages a procedure
+	// sent before returning
+	NORMAL(4),
+
+	// Large transfers that may take whatever bandwidth is left
+	BULK(1);
+
+	final int weight;
+
+	Priority(int weight) {
+		this.weight = weight;
+	}
+}
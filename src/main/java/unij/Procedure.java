@@ -9,4 +9,13 @@ import java.lang.annotation.Target;
 @Target(ElementType.METHOD)
 public @interface Procedure {
 	String value();
+
+	// Cache results of calls with identical parameters for this long, 0 disables caching
+	long cacheTtlMs() default 0;
+
+	// Most results kept in the cache, least recently used ones are evicted first
+	int cacheSize() default 1024;
+
+	// Approximate memory the cached keys and results may take
+	long cacheMaxBytes() default 16 * 1024 * 1024;
 }
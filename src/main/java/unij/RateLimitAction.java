@@ -0,0 +1,17 @@
+package unij;
+
+/**
+ * What happens to messages of a client that exceeds its rate limit
+ */
+
+public enum RateLimitAction {
+
+	// Drop the message and tell the client
+	THROTTLE,
+
+	// Delay the message until the client is within its limit again, throttle if that takes too long
+	QUEUE,
+
+	// Close the connection of the client
+	DISCONNECT
+}
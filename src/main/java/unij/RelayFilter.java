@@ -0,0 +1,19 @@
+package unij;
+
+/**
+ * Decides whether a message one client relays to another client or group gets forwarded.
+ * Called on the WebSocket thread for every relayed message, so it should be quick.
+ */
+
+@FunctionalInterface
+public interface RelayFilter {
+
+	/**
+	 * @param senderName        Name of the client that sent the message
+	 * @param target            Name of the target client, worker pool or "*"
+	 * @param payload           Message as the target will receive it: {"unijFrom":"sender","pro":"name","par":[...]}
+	 * @return                  True to forward the message, false to drop it
+	 */
+
+	boolean accept(String senderName, String target, String payload);
+}
@@ -0,0 +1,15 @@
+package unij;
+
+/**
+ * A procedure executed on a client did not deliver a result, because it failed, did not exist or the
+ * client disconnected before answering
+ */
+
+public class RemoteProcedureException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public RemoteProcedureException(String message) {
+		super(message);
+	}
+}
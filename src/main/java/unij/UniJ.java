@@ -1,20 +1,27 @@
 package unij;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
 import javax.websocket.Endpoint;
+import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class UniJ {
 
 	// Use default Jetty Logger
 	private static final Logger log = Log.getLog();
 
+	private static final ObjectMapper mapper = new ObjectMapper();
+
 	private static UniJServer server;
 	private final static HashMap<String, String> serverSettings = new HashMap<>();
 
@@ -25,6 +32,7 @@ public class UniJ {
 		serverSettings.put("port", "" + 7777);
 		serverSettings.put("securePort", "" + 7778);
 		serverSettings.put("uniJWebSocketPath", "/unij");
+		serverSettings.put("maxMessageSize", "" + 64 * 1024);
 		addCustomWebSocket("/unij", UniJEndpoint.class);
 
 		// Add standard procedures for UniJ specific communication
@@ -73,7 +81,7 @@ public class UniJ {
 	 */
 
 	public static void logToClient(String clientName, String message) {
-		execute(clientName, "unijLog", "UniJ Server: " + message);
+		execute(Priority.HIGH, clientName, "unijLog", "UniJ Server: " + message);
 	}
 
 	/**
@@ -107,6 +115,26 @@ public class UniJ {
 		UniJEndpoint.removeProcedure(name);
 	}
 
+	/**
+	 * Drop all cached results of a procedure declared with @Procedure(value = "name", cacheTtlMs = ...),
+	 * i.e. after the data it looks up changed
+	 * @param procedureName     Name of the procedure
+	 */
+
+	public static void invalidateCache(String procedureName) {
+		UniJEndpoint.invalidateCache(procedureName);
+	}
+
+	/**
+	 * Get hits, misses and size of the result cache of a procedure
+	 * @param procedureName     Name of the procedure
+	 * @return                  Statistics or null if the procedure doesn't cache its results
+	 */
+
+	public static CacheStatistics getCacheStatistics(String procedureName) {
+		return UniJEndpoint.getCacheStatistics(procedureName);
+	}
+
 	/**
 	 * Execute a remote procedure from a specific client
 	 * @param clientName            Name of the client
@@ -118,6 +146,120 @@ public class UniJ {
 		UniJEndpoint.execute(clientName, remoteProcedureName, parameters);
 	}
 
+	/**
+	 * Execute a remote procedure from a specific client in the lane of the given priority. HIGH messages
+	 * overtake queued NORMAL and BULK messages of the same client
+	 * @param priority              Lane of the message
+	 * @param clientName            Name of the client
+	 * @param remoteProcedureName   Name of the client's procedure
+	 * @param parameters            Parameters for the client's procedure
+	 */
+
+	public static void execute(Priority priority, String clientName, String remoteProcedureName,
+	                           Object... parameters) {
+		UniJEndpoint.execute(priority, clientName, remoteProcedureName, parameters);
+	}
+
+	/**
+	 * Execute a remote procedure from a specific client, but only ever deliver the latest value per key.
+	 * While the client is still busy receiving, a newer message for the same procedure and key replaces the
+	 * unsent older one. Useful for ticks and sensor values that are outdated once a newer one exists
+	 * @param clientName            Name of the client
+	 * @param remoteProcedureName   Name of the client's procedure
+	 * @param key                   Messages with the same procedure and key replace each other
+	 * @param parameters            Parameters for the client's procedure
+	 */
+
+	public static void executeConflated(String clientName, String remoteProcedureName, String key,
+	                                    Object... parameters) {
+		UniJEndpoint.executeConflated(clientName, remoteProcedureName, key, parameters);
+	}
+
+	/**
+	 * Execute a remote procedure from a specific client and receive its return value
+	 * @param clientName            Name of the client
+	 * @param remoteProcedureName   Name of the client's procedure
+	 * @param parameters            Parameters for the client's procedure
+	 * @return                      Completes with the result or a RemoteProcedureException
+	 */
+
+	public static CompletableFuture<JsonNode> call(String clientName, String remoteProcedureName, Object... parameters) {
+		return UniJEndpoint.call(clientName, remoteProcedureName, parameters);
+	}
+
+	/**
+	 * Execute a remote procedure on the client of a worker pool with the fewest unfinished jobs. Clients join
+	 * a pool with UniJ.joinPool("name") on their side. If the worker fails or disconnects, the job is
+	 * retried on another worker
+	 * @param poolName              Name of the worker pool
+	 * @param remoteProcedureName   Name of the procedure the workers offer
+	 * @param parameters            Parameters for the procedure
+	 * @return                      Completes with the result or a RemoteProcedureException
+	 */
+
+	public static CompletableFuture<JsonNode> submit(String poolName, String remoteProcedureName, Object... parameters) {
+		return UniJWorkerPool.submit(poolName, remoteProcedureName, parameters);
+	}
+
+	/**
+	 * Same as submit(poolName, remoteProcedureName, parameters), but converts the result
+	 * @param poolName              Name of the worker pool
+	 * @param resultType            Class the result is converted into
+	 * @param remoteProcedureName   Name of the procedure the workers offer
+	 * @param parameters            Parameters for the procedure
+	 * @return                      Completes with the result or a RemoteProcedureException
+	 */
+
+	public static <T> CompletableFuture<T> submit(String poolName, Class<T> resultType, String remoteProcedureName,
+	                                              Object... parameters) {
+		return UniJWorkerPool.submit(poolName, remoteProcedureName, parameters).thenApply(result -> {
+			try {
+				return mapper.treeToValue(result, resultType);
+			} catch (JsonProcessingException e) {
+				throw new CompletionException(e);
+			}
+		});
+	}
+
+	/**
+	 * Get the names of all clients in a worker pool
+	 * @param poolName      Name of the worker pool
+	 * @return              Set of client names
+	 */
+
+	public static Set<String> getWorkerNames(String poolName) {
+		return UniJWorkerPool.getWorkerNames(poolName);
+	}
+
+	/**
+	 * Set how often a job of UniJ.submit() is tried before it fails
+	 * @param attempts      Number of workers that get the job at most
+	 */
+
+	public static void setMaxSubmitAttempts(int attempts) {
+		UniJWorkerPool.setMaxAttempts(attempts);
+	}
+
+	/**
+	 * Set how long UniJ.call() and every attempt of UniJ.submit() wait for the client's answer. A call that
+	 * times out fails with a RemoteProcedureException, UniJ.submit() then tries another worker
+	 * @param millis        Milliseconds to wait, 0 waits forever. Default is 30 seconds
+	 */
+
+	public static void setCallTimeout(long millis) {
+		UniJEndpoint.setCallTimeout(millis);
+	}
+
+	/**
+	 * Check messages clients relay to each other with UniJ.relay() on their side. Relayed messages are
+	 * forwarded without parsing their parameters, the filter sees them raw
+	 * @param filter        Decides which messages are forwarded, null forwards all
+	 */
+
+	public static void setRelayFilter(RelayFilter filter) {
+		UniJEndpoint.setRelayFilter(filter);
+	}
+
 	/**
 	 * Execute a remote procedure on all connected clients
 	 * @param remoteProcedureName   Name of the procedure
@@ -128,6 +270,53 @@ public class UniJ {
 		UniJEndpoint.executeAll(remoteProcedureName, parameters);
 	}
 
+	/**
+	 * Execute a remote procedure on all connected clients in the lane of the given priority. Use BULK for
+	 * large pushes, so they don't delay other messages
+	 * @param priority              Lane of the message
+	 * @param remoteProcedureName   Name of the procedure
+	 * @param parameters            Parameters for the procedure
+	 */
+
+	public static void executeAll(Priority priority, String remoteProcedureName, Object... parameters) {
+		UniJEndpoint.executeAll(priority, remoteProcedureName, parameters);
+	}
+
+	/**
+	 * Get the number of messages that wait to be written to a client
+	 * @param clientName        Name of the client
+	 * @return                  Number of queued messages, 0 for unknown clients
+	 */
+
+	public static int getQueuedMessages(String clientName) {
+		return UniJEndpoint.getQueuedMessages(clientName);
+	}
+
+	/**
+	 * Connect a client living in this JVM. It is addressed by name like any other client, but calls are
+	 * handed over as objects without a socket or serialization
+	 * @param clientName        Name of the client
+	 * @return                  The client, close it to disconnect
+	 * @throws IllegalArgumentException     If the name is already taken
+	 */
+
+	public static UniJLocalClient connectLocalClient(String clientName) throws IllegalArgumentException {
+		return new UniJLocalClient(clientName, false);
+	}
+
+	/**
+	 * Connect a client living in this JVM
+	 * @param clientName        Name of the client
+	 * @param copyMode          Serialize and parse every call like a WebSocket message for strict semantics
+	 * @return                  The client, close it to disconnect
+	 * @throws IllegalArgumentException     If the name is already taken
+	 */
+
+	public static UniJLocalClient connectLocalClient(String clientName, boolean copyMode)
+			throws IllegalArgumentException {
+		return new UniJLocalClient(clientName, copyMode);
+	}
+
 	/**
 	 * Add a custom WebSocket to the UniJ server
 	 * @param address       Relative websocket adress
@@ -207,6 +396,49 @@ public class UniJ {
 		return UniJEndpoint.getClientNames();
 	}
 
+	/**
+	 * Get a live, read-only view of the client names. Unlike getAllConnectedClientNames() nothing is copied,
+	 * the view reflects connects, renames and disconnects as they happen
+	 * @return      Set of client names
+	 */
+
+	public static Set<String> getConnectedClientNamesView() {
+		return UniJEndpoint.getClientNamesView();
+	}
+
+	/**
+	 * Get notified when clients connect, become ready, rename themselves or disconnect
+	 * @param listener      Called on a UniJ thread, one event after another
+	 */
+
+	public static void addListener(UniJListener listener) {
+		UniJLifecycle.addListener(listener);
+	}
+
+	public static void removeListener(UniJListener listener) {
+		UniJLifecycle.removeListener(listener);
+	}
+
+	/**
+	 * Wait until a number of clients is connected
+	 * @param numberOfClients       Number of clients to wait for
+	 * @return                      Completes as soon as enough clients are connected
+	 */
+
+	public static CompletableFuture<Void> awaitClients(int numberOfClients) {
+		return UniJLifecycle.await(() -> UniJEndpoint.getNumberOfConnectedClients() >= numberOfClients);
+	}
+
+	/**
+	 * Wait until a client with a specific name is connected, either right away or by renaming itself
+	 * @param clientName            Name of the client
+	 * @return                      Completes as soon as the client is connected
+	 */
+
+	public static CompletableFuture<Void> awaitClient(String clientName) {
+		return UniJLifecycle.await(() -> UniJEndpoint.getClientNamesView().contains(clientName));
+	}
+
 	/**
 	 * Get the relative path of the standard UniJ WebSocket
 	 * @return      Relative WebSocket path
@@ -230,14 +462,76 @@ public class UniJ {
 	 */
 
 	public static void waitForFirstClient() {
-		while (UniJEndpoint.getNumberOfConnectedClients() < 1)  {
-			try {
-				TimeUnit.SECONDS.sleep(1);
-			} catch (InterruptedException e) {
-				log("Error happened while waiting for first client");
-				e.printStackTrace();
-			}
-		}
+		awaitClients(1).join();
+	}
+
+	/**
+	 * Record all inbound and outbound frames into a binary capture file, which UniJReplay can play back
+	 * against a UniJ server. Frames are written by a background thread
+	 * @param path      File to write the capture to
+	 * @throws IOException
+	 */
+
+	public static void startCapture(String path) throws IOException {
+		UniJCapture.start(path);
+	}
+
+	/**
+	 * Stop recording frames and close the capture file
+	 */
+
+	public static void stopCapture() {
+		UniJCapture.stop();
+	}
+
+	/**
+	 * Encode messages of execute() and executeAll() directly into pooled buffers instead of building Strings.
+	 * Messages are then sent as UTF-8 binary frames, which the UniJ clients of this version understand
+	 * @param enabled       True to use pooled buffers
+	 */
+
+	public static void setPooledEncoding(boolean enabled) {
+		UniJEndpoint.setPooledEncoding(enabled);
+	}
+
+	/**
+	 * Set the size of the pooled buffers used by pooled encoding. Larger messages get a temporary buffer
+	 * @param bytes             Size of each buffer
+	 * @param maxBuffers        Number of idle buffers kept in the pool
+	 */
+
+	public static void setPooledBufferSize(int bytes, int maxBuffers) {
+		UniJEncoder.setBufferSize(bytes, maxBuffers);
+	}
+
+	/**
+	 * Set the largest frame a websocket accepts, takes effect when the server starts. Keep it well above the
+	 * chunk size, as escaping can grow a chunk up to six times
+	 * @param bytes         Maximum size of an incoming text or binary message
+	 */
+
+	public static void setMaxMessageSize(int bytes) {
+		serverSettings.put("maxMessageSize", "" + bytes);
+	}
+
+	/**
+	 * Set the length above which messages to clients are split into chunks. Chunks of large messages are
+	 * interleaved with other messages, so small messages don't wait for a large one
+	 * @param characters        Maximum characters per chunk, the default is 8192
+	 */
+
+	public static void setChunkSize(int characters) {
+		UniJEndpoint.setChunkSize(characters);
+	}
+
+	/**
+	 * Limit the memory each client may occupy with partially received chunked messages. Messages that
+	 * exceed it are dropped
+	 * @param characters        Characters buffered per client, the default is 16777216
+	 */
+
+	public static void setMaxReassemblySize(long characters) {
+		UniJEndpoint.setMaxReassemblySize(characters);
 	}
 
 	/**
@@ -249,6 +543,46 @@ public class UniJ {
 		UniJEndpoint.setMaxClients(clientsAllowed);
 	}
 
+	/**
+	 * Limit how many messages each client may send. Checked before a message is executed
+	 * @param callsPerSecond        Sustained rate per client, 0 removes the limit
+	 * @param burst                 Messages allowed at once after a quiet period
+	 */
+
+	public static void setClientRateLimit(double callsPerSecond, int burst) {
+		UniJEndpoint.setClientRateLimit(callsPerSecond, burst);
+	}
+
+	/**
+	 * Limit how often each client may execute a specific procedure
+	 * @param procedureName         Name of the procedure
+	 * @param callsPerSecond        Sustained rate per client, 0 removes the limit
+	 * @param burst                 Calls allowed at once after a quiet period
+	 */
+
+	public static void setProcedureRateLimit(String procedureName, double callsPerSecond, int burst) {
+		UniJEndpoint.setProcedureRateLimit(procedureName, callsPerSecond, burst);
+	}
+
+	/**
+	 * Decide what happens to messages over the limit, the default is RateLimitAction.THROTTLE
+	 * @param action                Throttle, queue or disconnect
+	 * @param maxQueueDelayMillis   Longest a message is queued before it is throttled instead
+	 */
+
+	public static void setRateLimitAction(RateLimitAction action, long maxQueueDelayMillis) {
+		UniJEndpoint.setRateLimitAction(action, maxQueueDelayMillis);
+	}
+
+	/**
+	 * Get the connected clients that exceeded a rate limit
+	 * @return      Client name -> number of messages over the limit
+	 */
+
+	public static Map<String, Long> getRateLimitedClients() {
+		return UniJEndpoint.getRateLimitedClients();
+	}
+
 	/**
 	 * Set the host name of the UniJ server
 	 * @param hostName      Hostname .i.e "127.0.0.1"
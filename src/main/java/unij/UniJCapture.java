@@ -0,0 +1,203 @@
+package unij;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records every frame passing UniJEndpoint.onMessage and UniJEndpoint.sendText into a binary log.
+ * The WebSocket threads only enqueue frames, a background thread does the writing.
+ *
+ * File layout: "UNIJCAP2" followed by records of
+ * [long nanos since start][byte direction][long session id][int length][UTF-8 payload]
+ *
+ * Frames are keyed by a session id that stays the same when a client renames itself. NAMED records carry
+ * the name a session got on connect and after every rename.
+ */
+
+class UniJCapture implements Runnable {
+
+	static final byte INBOUND = 0;
+	static final byte OUTBOUND = 1;
+	static final byte NAMED = 2;
+
+	private static final byte[] MAGIC = "UNIJCAP2".getBytes(StandardCharsets.US_ASCII);
+	private static final int QUEUE_CAPACITY = 1 << 16;
+
+	// Checked on every frame, null while not capturing
+	private static volatile UniJCapture current;
+
+	private final BlockingQueue<Frame> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+	private final AtomicLong droppedFrames = new AtomicLong();
+	private final DataOutputStream out;
+	private final long startTime = System.nanoTime();
+	private final Thread writerThread;
+	private volatile boolean running = true;
+
+	private UniJCapture(String path) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+		this.out.write(MAGIC);
+		this.writerThread = new Thread(this, "unij-capture");
+		this.writerThread.setDaemon(true);
+	}
+
+	/**
+	 * Start capturing all traffic into a file, a running capture is stopped first
+	 * @param path          File to write to, will be overwritten
+	 * @throws IOException
+	 */
+
+	static synchronized void start(String path) throws IOException {
+		stop();
+		UniJCapture capture = new UniJCapture(path);
+		capture.writerThread.start();
+		current = capture;
+		UniJ.log("Capturing traffic into \"" + path + "\"");
+	}
+
+	/**
+	 * Stop capturing and write everything that is still queued
+	 */
+
+	static synchronized void stop() {
+		UniJCapture capture = current;
+		if (capture == null) {
+			return;
+		}
+		current = null;
+		capture.running = false;
+		capture.writerThread.interrupt();
+
+		try {
+			capture.writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (capture.droppedFrames.get() > 0) {
+			UniJ.log("Capture dropped " + capture.droppedFrames.get() + " frames because the writer fell behind");
+		}
+	}
+
+	static boolean isCapturing() {
+		return current != null;
+	}
+
+	/**
+	 * Remember a frame if a capture is running. Never blocks, frames are dropped if the queue is full
+	 * @param direction         INBOUND, OUTBOUND or NAMED
+	 * @param session           Id of the session the frame came from or went to
+	 * @param message           The raw frame or the session's new name
+	 */
+
+	static void record(byte direction, long session, String message) {
+		UniJCapture capture = current;
+		if (capture != null) {
+			Frame frame = new Frame(System.nanoTime() - capture.startTime, direction, session, message);
+			if (!capture.queue.offer(frame)) {
+				capture.droppedFrames.incrementAndGet();
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running || !queue.isEmpty()) {
+				Frame frame;
+				try {
+					frame = queue.take();
+				} catch (InterruptedException e) {
+					// Stopped, write what is left
+					continue;
+				}
+
+				write(frame);
+
+				// Only flush when there is nothing else to write
+				while ((frame = queue.poll()) != null) {
+					write(frame);
+				}
+				out.flush();
+			}
+		} catch (IOException e) {
+			UniJ.log("Capture failed: " + e);
+			current = null;
+		} finally {
+			try {
+				out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void write(Frame frame) throws IOException {
+		byte[] payload = frame.message.getBytes(StandardCharsets.UTF_8);
+		out.writeLong(frame.time);
+		out.writeByte(frame.direction);
+		out.writeLong(frame.session);
+		out.writeInt(payload.length);
+		out.write(payload);
+	}
+
+	/**
+	 * Read all frames of a capture file
+	 * @param path          File written by a capture
+	 * @return              Frames in the order they were captured
+	 * @throws IOException
+	 */
+
+	static List<Frame> read(String path) throws IOException {
+		List<Frame> frames = new ArrayList<>();
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException("\"" + path + "\" is not a UniJ capture file");
+			}
+
+			while (true) {
+				long time;
+				try {
+					time = in.readLong();
+				} catch (EOFException e) {
+					break;
+				}
+				byte direction = in.readByte();
+				long session = in.readLong();
+				byte[] payload = new byte[in.readInt()];
+				in.readFully(payload);
+				frames.add(new Frame(time, direction, session, new String(payload, StandardCharsets.UTF_8)));
+			}
+		}
+		return frames;
+	}
+
+	static class Frame {
+		final long time;
+		final byte direction;
+		final long session;
+		final String message;
+
+		Frame(long time, byte direction, long session, String message) {
+			this.time = time;
+			this.direction = direction;
+			this.session = session;
+			this.message = message;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package unij;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import javax.websocket.SendHandler;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splitting and reassembly of messages that are too large for a single frame. A chunked message travels as
+ * {"pro":"unijChunk","par":[id,index,last,"slice"]} to browsers and as {"unijChunk":[id,index,last,"slice"]}
+ * to the server. Chunks of one message arrive in order, so they are simply appended.
+ */
+
+class UniJChunks {
+
+	static final String CHUNK_PROCEDURE = "unijChunk";
+
+	// A partial message that got no chunk for this long was abandoned by its sender
+	static final long PARTIAL_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+	/**
+	 * A message that is sent one chunk at a time
+	 */
+
+	static class Outgoing {
+
+		final long id;
+		final String procedureName;
+		final SendHandler onSent;
+		private final String message;
+		private final int chunkSize;
+		private int position;
+		private int index;
+
+		/**
+		 * @param id                Unique for the receiving client
+		 * @param procedureName     Name of the procedure, only used for recording
+		 * @param message           The whole message
+		 * @param chunkSize         Maximum number of characters per chunk, at least 2
+		 * @param onSent            Called once the last chunk was sent, may be null
+		 */
+
+		Outgoing(long id, String procedureName, String message, int chunkSize, SendHandler onSent) {
+			this.id = id;
+			this.procedureName = procedureName;
+			this.message = message;
+			this.chunkSize = chunkSize;
+			this.onSent = onSent;
+		}
+
+		boolean hasNext() {
+			return position < message.length();
+		}
+
+		/**
+		 * @return      The next chunk frame, never splits a surrogate pair
+		 */
+
+		String nextChunk() {
+			int end = Math.min(position + chunkSize, message.length());
+			if (end < message.length() && Character.isHighSurrogate(message.charAt(end - 1))) {
+				end--;
+			}
+
+			char[] slice = JsonStringEncoder.getInstance().quoteAsString(message.substring(position, end));
+			position = end;
+
+			return "{\"pro\":\"" + CHUNK_PROCEDURE + "\",\"par\":[" + id + "," + index++ + ","
+					+ !hasNext() + ",\"" + new String(slice) + "\"]}";
+		}
+	}
+
+	/**
+	 * Partially received messages of one client
+	 */
+
+	static class Incoming {
+
+		private final HashMap<Long, Partial> partials = new HashMap<>();
+		private long bufferedChars;
+
+		/**
+		 * Add a chunk to its message
+		 * @param id                Id of the message
+		 * @param index             Position of the chunk, starting at 0
+		 * @param last              True for the last chunk
+		 * @param slice             Part of the message
+		 * @param maxBufferedChars  Limit for all partial messages of this client together
+		 * @return                  The whole message after its last chunk, otherwise null
+		 * @throws IllegalStateException    If the chunk is out of order or exceeds the limit, its message is dropped
+		 */
+
+		String add(long id, int index, boolean last, String slice, long maxBufferedChars) {
+			return add(id, index, last, slice, maxBufferedChars, System.nanoTime());
+		}
+
+		/**
+		 * Same as add(id, index, last, slice, maxBufferedChars), but abandoned messages are expired relative
+		 * to the given time
+		 * @param now       Current System.nanoTime()
+		 */
+
+		synchronized String add(long id, int index, boolean last, String slice, long maxBufferedChars, long now) {
+			expire(now);
+			Partial partial = partials.get(id);
+
+			if (partial == null && index == 0) {
+				partial = new Partial();
+				partials.put(id, partial);
+			}
+
+			if (partial == null || partial.nextIndex != index || slice == null) {
+				drop(id);
+				throw new IllegalStateException("Chunk " + index + " of message " + id + " is out of order");
+			}
+
+			bufferedChars += slice.length();
+			partial.message.append(slice);
+			partial.nextIndex++;
+			partial.lastChunk = now;
+
+			if (bufferedChars > maxBufferedChars) {
+				drop(id);
+				throw new IllegalStateException("Message " + id + " exceeds the limit of " + maxBufferedChars
+						+ " buffered characters");
+			}
+
+			if (!last) {
+				return null;
+			}
+
+			drop(id);
+			return partial.message.toString();
+		}
+
+		/**
+		 * Drop messages whose sender stopped sending chunks, so they don't use up the limit forever
+		 */
+
+		private void expire(long now) {
+			partials.entrySet().removeIf(entry -> {
+				if (now - entry.getValue().lastChunk < PARTIAL_TIMEOUT_NANOS) {
+					return false;
+				}
+				bufferedChars -= entry.getValue().message.length();
+				return true;
+			});
+		}
+
+		private void drop(long id) {
+			Partial partial = partials.remove(id);
+			if (partial != null) {
+				bufferedChars -= partial.message.length();
+			}
+		}
+
+		private static class Partial {
+			private final StringBuilder message = new StringBuilder();
+			private int nextIndex;
+			private long lastChunk;
+		}
+	}
+}
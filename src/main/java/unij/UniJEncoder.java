@@ -0,0 +1,156 @@
+package unij;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Encodes outgoing messages as UTF-8 straight into pooled direct ByteBuffers. Compared to building a
+ * String this saves the intermediate Strings and char[] of every message and the UTF-8 encoding Jetty
+ * would do for a text frame. Buffers go back to the pool once their send completed.
+ */
+
+class UniJEncoder {
+
+	// No separator between messages, each thread keeps writing its messages with the same generator
+	private static final JsonFactory factory = new JsonFactory().setRootValueSeparator(null);
+	private static final ObjectWriter writer = new ObjectMapper(factory).writer();
+
+	private static final ThreadLocal<Encoder> encoders = ThreadLocal.withInitial(Encoder::new);
+
+	private static volatile int bufferSize = 8 * 1024;
+	private static volatile int maxPooledBuffers = 1024;
+
+	private static final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+	private static final AtomicInteger pooledBuffers = new AtomicInteger();
+
+	private UniJEncoder() {
+	}
+
+	/**
+	 * Encode {"pro":"name","par":[param1,param2]} into a buffer ready to be sent
+	 * @param procedureName     Name of the remote procedure
+	 * @param parameters        Parameters for the procedure
+	 * @return                  Flipped buffer, hand it back with release() after sending
+	 * @throws IOException      If the parameters can't be serialized
+	 */
+
+	static ByteBuffer encode(String procedureName, Object... parameters) throws IOException {
+		Encoder encoder = encoders.get();
+		BufferOutputStream out = encoder.out;
+		JsonGenerator generator = encoder.generator;
+
+		out.buffer = acquire();
+
+		try {
+			generator.writeStartObject();
+			generator.writeStringField("pro", procedureName);
+			generator.writeFieldName("par");
+			writer.writeValue(generator, parameters);
+			generator.writeEndObject();
+			generator.flush();
+		} catch (IOException | RuntimeException e) {
+			release(out.buffer);
+			// The generator is stuck in the middle of the failed message
+			encoders.remove();
+			throw e;
+		}
+
+		ByteBuffer message = out.buffer;
+		out.buffer = null;
+		message.flip();
+		return message;
+	}
+
+	/**
+	 * Give a buffer back to the pool. Buffers that grew beyond the pooled size are left to the GC
+	 * @param buffer        Buffer returned by encode()
+	 */
+
+	static void release(ByteBuffer buffer) {
+		if (buffer.capacity() == bufferSize && pooledBuffers.incrementAndGet() <= maxPooledBuffers) {
+			buffer.clear();
+			pool.offer(buffer);
+		} else if (buffer.capacity() == bufferSize) {
+			pooledBuffers.decrementAndGet();
+		}
+	}
+
+	private static ByteBuffer acquire() {
+		ByteBuffer buffer = pool.poll();
+		if (buffer == null) {
+			return ByteBuffer.allocateDirect(bufferSize);
+		}
+		pooledBuffers.decrementAndGet();
+		return buffer;
+	}
+
+	/**
+	 * Set the size of pooled buffers, larger messages get a temporary buffer
+	 * @param bytes             Size of each buffer
+	 * @param maxBuffers        Number of idle buffers kept in the pool
+	 */
+
+	static void setBufferSize(int bytes, int maxBuffers) {
+		bufferSize = bytes;
+		maxPooledBuffers = maxBuffers;
+		pool.clear();
+		pooledBuffers.set(0);
+	}
+
+	/**
+	 * Generator of one thread, writing into whatever buffer the current message gets
+	 */
+
+	private static class Encoder {
+		final BufferOutputStream out = new BufferOutputStream();
+		final JsonGenerator generator;
+
+		Encoder() {
+			try {
+				generator = factory.createGenerator(out, JsonEncoding.UTF8);
+			} catch (IOException e) {
+				throw new IllegalStateException("UniJ: Could not create JSON generator", e);
+			}
+		}
+	}
+
+	/**
+	 * Writes into a ByteBuffer and swaps it for a larger one if it runs full
+	 */
+
+	private static class BufferOutputStream extends OutputStream {
+
+		private ByteBuffer buffer;
+
+		@Override
+		public void write(int b) {
+			ensureRemaining(1);
+			buffer.put((byte) b);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) {
+			ensureRemaining(length);
+			buffer.put(bytes, offset, length);
+		}
+
+		private void ensureRemaining(int length) {
+			if (buffer.remaining() < length) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+				buffer.flip();
+				larger.put(buffer);
+				release(buffer);
+				buffer = larger;
+			}
+		}
+	}
+}
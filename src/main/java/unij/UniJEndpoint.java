@@ -3,31 +3,111 @@ package unij;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.util.ClassUtil;
 
 import javax.websocket.*;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class UniJEndpoint extends Endpoint implements MessageHandler.Whole<String> {
 
+	// Messages without a call id don't expect a reply
+	private static final long NO_CALL_ID = -1;
+
+	// {"unijRelay":"target","pro":"name","par":[...]} is forwarded as {"unijFrom":"sender","pro":"name","par":[...]},
+	// clients treat marked messages as plain procedure calls, whatever else the sender put in
+	private static final String RELAY_FIELD = "unijRelay";
+	private static final String RELAY_SENDER_FIELD = "unijFrom";
+	private static final String ALL_CLIENTS = "*";
+	private static volatile RelayFilter relayFilter;
+
+	// Encode execute() and executeAll() into pooled buffers and send binary frames
+	private static volatile boolean pooledEncoding = false;
+
+	// Prototypes of the token buckets every client gets, null means no limit
+	private static volatile UniJRateLimiter clientRateLimit;
+	private static final ConcurrentHashMap<String, UniJRateLimiter> procedureRateLimits = new ConcurrentHashMap<>();
+	private static volatile RateLimitAction rateLimitAction = RateLimitAction.THROTTLE;
+	private static volatile long maxQueueDelayNanos = TimeUnit.SECONDS.toNanos(1);
+	// Messages without a call id get at most one notice per interval, so they can't be used to flood the client
+	private static final long NOTICE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+	// Runs queued messages and call timeouts
+	private static ScheduledThreadPoolExecutor scheduler;
+
+	// Messages longer than this many characters are sent in chunks, see UniJChunks
+	private static volatile int chunkSize = 8192;
+	// Characters of partially received chunked messages a single client may buffer
+	private static volatile long maxReassemblySize = 16 * 1024 * 1024;
+
 	private static final HashMap<String, UniJProcedure> localProcedures = new HashMap<>();
 	
 	private static final ConcurrentHashMap<String, UniJEndpoint> clientPool = new ConcurrentHashMap<>();
 	private static int maxClients = Integer.MAX_VALUE;
+	private static final Set<String> clientNamesView = Collections.unmodifiableSet(clientPool.keySet());
+
+	private static final AtomicLong nextCallId = new AtomicLong();
+	private static final AtomicLong nextSessionId = new AtomicLong();
+	// Calls to clients that wait for a result, keyed by call id
+	private static final ConcurrentHashMap<Long, PendingCall> pendingCalls = new ConcurrentHashMap<>();
+	// A call fails if the client doesn't answer in time, 0 waits forever
+	private static volatile long callTimeoutMillis = 30000;
+	// {"unijResult":[callId,result]} and {"unijError":[callId,"message"]} answer these calls
+	private static final String RESULT_FIELD = "unijResult";
+	private static final String ERROR_FIELD = "unijError";
+	// {"unijJoinPool":["pool"]} and {"unijLeavePool":["pool"]} always act on the sending client
+	private static final String JOIN_POOL_FIELD = "unijJoinPool";
+	private static final String LEAVE_POOL_FIELD = "unijLeavePool";
 
-	private static final ObjectWriter writer = new ObjectMapper().writer();
+	private static final ObjectMapper mapper = new ObjectMapper();
+	private static final ObjectWriter writer = mapper.writer();
 	private final JsonFactory factory = new JsonFactory(new ObjectMapper());
 
 	private String clientName;
+	// Stays the same when the client renames itself, used to key captured frames
+	private final long sessionId = nextSessionId.incrementAndGet();
+	private Session session;
 	private RemoteEndpoint.Async remoteEndpoint;
 
+	// Token buckets of this client, created on first use
+	private volatile UniJRateLimiter rateLimiter;
+	private final ConcurrentHashMap<String, UniJRateLimiter> procedureRateLimiters = new ConcurrentHashMap<>();
+	private final AtomicLong limitedMessages = new AtomicLong();
+	private volatile boolean closed;
+	private volatile long nextNotice;
+
+	// Latest unsent message per procedure and key, see executeConflated()
+	private final LinkedHashMap<String, String> conflatedMessages = new LinkedHashMap<>();
+	private boolean sendingConflated;
+
+	// Lanes of outgoing frames, see Priority
+	private final UniJOutbox outbox = new UniJOutbox(this::transmit);
+	private final AtomicLong nextChunkedMessageId = new AtomicLong();
+	private final UniJChunks.Incoming incomingChunks = new UniJChunks.Incoming();
+
 	/**
 	 * Signal that the Browser connected
 	 * @param session       Websocket session of current client
@@ -39,6 +119,7 @@ public class UniJEndpoint extends Endpoint implements MessageHandler.Whole<Strin
 		// ID = "websocket-X" -> "X"
     String sessionId = session.getId();
 		this.clientName = sessionId.substring(0, Math.min(sessionId.length(), 10));
+		this.session = session;
 		this.remoteEndpoint = session.getAsyncRemote();
 		
 		if (clientPool.size() < maxClients) {
@@ -47,9 +128,17 @@ public class UniJEndpoint extends Endpoint implements MessageHandler.Whole<Strin
 			session.addMessageHandler(this);
 
 			clientPool.put(this.clientName, this);
+			UniJCapture.record(UniJCapture.NAMED, this.sessionId, this.clientName);
+			UniJLifecycle.connected(this.clientName);
 
-			execute(clientName, "setClientName", clientName);
-			execute(clientName, "clientIsReadyNow");
+			execute(Priority.HIGH, clientName, "setClientName", clientName);
+
+			String readyName = this.clientName;
+			sendText(Priority.HIGH, "clientIsReadyNow", "{\"pro\":\"clientIsReadyNow\",\"par\":[]}", result -> {
+				if (result.isOK()) {
+					UniJLifecycle.ready(readyName);
+				}
+			});
 
 			UniJ.log("Client \"" + clientName + "\" just connected");
 
@@ -64,54 +153,533 @@ public class UniJEndpoint extends Endpoint implements MessageHandler.Whole<Strin
 	}
 	/**
 	 * Receive messages from websocket clients
-	 * @param message       Expected pattern: {"procedure":[param1,param2]}
+	 * @param message       Expected pattern: {"procedure":[param1,param2]} or {"procedure":[param1],"cid":1}
 	 */
 
 	@Override
 	public void onMessage(String message) {
+		// Only frames that came off the wire are recorded, not the messages they turn into later
+		UniJCapture.record(UniJCapture.INBOUND, this.sessionId, message);
+
+		UniJEvents.MessageReceived received = new UniJEvents.MessageReceived();
+		received.begin();
+
+		String procedureName = handleMessage(message, true, true);
+
+		received.end();
+		UniJEvents.commit(received, procedureName, this.clientName, message.length());
+	}
+
+	/**
+	 * Parse and execute a message
+	 * @param message                   The raw message
+	 * @param checkClientLimit          False for messages that already counted against the client's limit
+	 * @param checkProcedureLimit       False for messages that already waited for their turn
+	 * @return                          Name of the procedure, null if the message couldn't be parsed
+	 */
+
+	private String handleMessage(String message, boolean checkClientLimit, boolean checkProcedureLimit) {
+
+		String procedureName = null;
 
 		try {
+			UniJEvents.MessageParsed parsed = new UniJEvents.MessageParsed();
+			parsed.begin();
+
 			JsonParser parser = factory.createParser(message);
 			parser.nextToken(); // {
-			String procedureName = parser.nextFieldName();
+			procedureName = parser.nextFieldName();
 
 			UniJProcedure procedure = localProcedures.get(procedureName);
 
-			if (procedure != null) {
+			if (RESULT_FIELD.equals(procedureName) || ERROR_FIELD.equals(procedureName)) {
+				receiveAnswer(procedureName, parser, parsed, message, checkClientLimit, checkProcedureLimit);
 
-				Object[] parameters = new Object[procedure.paramTypes.length];
+			} else if ((checkClientLimit || checkProcedureLimit)
+					&& !admit(procedureName, message, checkClientLimit, checkProcedureLimit)) {
+				// Throttled, queued or disconnected
+				commitParsed(parsed, procedureName, message.length());
+
+			} else if (UniJChunks.CHUNK_PROCEDURE.equals(procedureName)) {
+				receiveChunk(parser, parsed, message.length());
 
+			} else if (JOIN_POOL_FIELD.equals(procedureName) || LEAVE_POOL_FIELD.equals(procedureName)) {
 				parser.nextToken(); // [
+				String poolName = parser.nextTextValue();
+				commitParsed(parsed, procedureName, message.length());
+				changePool(procedureName, poolName);
+
+			} else if (RELAY_FIELD.equals(procedureName)) {
+				String target = parser.nextTextValue();
+				commitParsed(parsed, procedureName, message.length());
+				relay(target, message, (int) parser.getCurrentLocation().getCharOffset());
 
-				for (int i = 0; i < parameters.length; i++) {
-					parser.nextValue();
+			} else if (procedure != null && procedure.cache != null) {
+				executeCached(procedure, procedureName, parser, parsed, message);
+
+			} else if (procedure != null) {
+
+				Object[] parameters = new Object[procedure.paramTypes.length];
+
+				JsonToken token = parser.nextToken(); // [
+
+				// Missing parameters stay null
+				for (int i = 0; i < parameters.length && (token = parser.nextValue()) != JsonToken.END_ARRAY; i++) {
 					parameters[i] = parser.readValueAs(procedure.paramTypes[i]);
 				}
 
+				long callId = readCallId(parser, token);
+				commitParsed(parsed, procedureName, message.length());
+
 				// Not checking for nulls in parameters
 
-				if (procedure.willReturnSomething) {
-					UniJ.execute(this.clientName, procedureName, procedure.execute(parameters));
-				} else {
-					procedure.execute(parameters);
+				Object result = dispatch(procedure, procedureName, this.clientName, message.length(), parameters);
+
+				if (callId != NO_CALL_ID && result == UniJProcedure.EXECUTION_FAILED) {
+					replyError(this.clientName, procedureName, callId, executionFailed(procedureName));
+				} else if (callId != NO_CALL_ID) {
+					reply(this.clientName, procedureName, callId,
+							procedure.willReturnSomething ? new Object[]{result} : new Object[0]);
+				} else if (procedure.willReturnSomething) {
+					UniJ.execute(this.clientName, procedureName,
+							result == UniJProcedure.EXECUTION_FAILED ? UniJProcedure.EXECUTION_FAILED_MESSAGE : result);
 				}
 
 			} else {
-				UniJ.logToClient(this.clientName, "Remote procedure with clientName \"" + procedureName
-						+ "\" does not exist");
+				parser.nextToken(); // [
+				parser.skipChildren();
+				long callId = readCallId(parser, JsonToken.END_ARRAY);
+				commitParsed(parsed, procedureName, message.length());
+
+				String error = "Remote procedure with clientName \"" + procedureName + "\" does not exist";
+				if (callId != NO_CALL_ID) {
+					replyError(this.clientName, procedureName, callId, error);
+				} else {
+					notice(error);
+				}
 			}
 
-			// No need to parse ]}
+			// No need to parse }
 			parser.close();
 
 		} catch (JsonMappingException e) {
-			String procedureName = message.substring(1, message.indexOf(":"));
 			String procedureParam = message.substring(message.indexOf(":") + 2, message.length() - 2);
 			UniJ.log("While local procedure with clientName " + procedureName + " exists, remote execution"
 					+ " failed because of invalid parameters: " + procedureParam);
+
+			long callId = findCallId(message);
+			if (callId != NO_CALL_ID) {
+				replyError(this.clientName, procedureName, callId, "Invalid parameters for procedure \""
+						+ procedureName + "\"");
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+
+		return procedureName;
+	}
+
+	/**
+	 * End the parse stage of a message, once the parts a branch needs are read
+	 */
+
+	private void commitParsed(UniJEvents.MessageParsed parsed, String procedureName, int payloadLength) {
+		parsed.end();
+		UniJEvents.commit(parsed, procedureName, this.clientName, payloadLength);
+	}
+
+	/**
+	 * Add a chunk to its message and execute the message once it is complete. The chunks already counted
+	 * against the client's limit, the complete message still has to pass the limit of its procedure
+	 * @param parser        Parser positioned behind the procedure name of {"unijChunk":[id,index,last,"slice"]}
+	 * @param parsed        Parse stage of the chunk
+	 * @param frameLength   Length of the chunk's frame
+	 * @throws IOException
+	 */
+
+	private void receiveChunk(JsonParser parser, UniJEvents.MessageParsed parsed, int frameLength)
+			throws IOException {
+		parser.nextToken(); // [
+		long id = parser.nextLongValue(-1);
+		int index = parser.nextIntValue(-1);
+		parser.nextToken();
+		boolean last = parser.getCurrentToken() == JsonToken.VALUE_TRUE;
+		String slice = parser.nextTextValue();
+		commitParsed(parsed, UniJChunks.CHUNK_PROCEDURE, frameLength);
+
+		String message;
+		try {
+			message = incomingChunks.add(id, index, last, slice, maxReassemblySize);
+		} catch (IllegalStateException e) {
+			UniJ.log("Dropped chunked message of client \"" + this.clientName + "\": " + e.getMessage());
+			notice("Chunked message was dropped: " + e.getMessage());
+			return;
+		}
+
+		if (message != null) {
+			handleMessage(message, false, true);
+		}
+	}
+
+	protected static void setChunkSize(int characters) {
+		if (characters < 2) {
+			throw new IllegalArgumentException("UniJ: Chunks need to hold at least 2 characters");
+		}
+		chunkSize = characters;
+	}
+
+	protected static void setMaxReassemblySize(long characters) {
+		maxReassemblySize = characters;
+	}
+
+	/**
+	 * Add this client to a worker pool or remove it. The client's current name is used, so nobody can
+	 * move other clients and a client that doesn't know its name yet still joins as itself
+	 * @param action        JOIN_POOL_FIELD or LEAVE_POOL_FIELD
+	 * @param poolName      Name of the worker pool
+	 */
+
+	private void changePool(String action, String poolName) {
+		if (poolName == null) {
+			notice("Joining or leaving a worker pool needs the name of the pool");
+		} else if (JOIN_POOL_FIELD.equals(action)) {
+			UniJWorkerPool.join(poolName, this.clientName);
+		} else {
+			UniJWorkerPool.leave(poolName, this.clientName);
+		}
+	}
+
+	/**
+	 * Forward a message to another client or group without parsing its payload. The message is marked with
+	 * the sender, so the target neither treats it as a call nor as a reply of the server
+	 * @param target        Name of a client, a worker pool or "*" for everybody else
+	 * @param message       Expected pattern: {"unijRelay":"target","pro":"name","par":[param1]}
+	 * @param headerEnd     Position right behind the target
+	 */
+
+	private void relay(String target, String message, int headerEnd) {
+		int payloadStart = message.indexOf(',', headerEnd);
+
+		if (target == null || payloadStart < 0) {
+			notice("Relayed messages need a target and a procedure");
+			return;
+		}
+
+		String payload = "{\"" + RELAY_SENDER_FIELD + "\":\""
+				+ new String(JsonStringEncoder.getInstance().quoteAsString(this.clientName)) + "\","
+				+ message.substring(payloadStart + 1);
+
+		RelayFilter filter = relayFilter;
+		if (filter != null && !filter.accept(this.clientName, target, payload)) {
+			return;
+		}
+
+		UniJEndpoint client = clientPool.get(target);
+
+		if (client != null) {
+			client.sendText(RELAY_FIELD, payload);
+		} else if (ALL_CLIENTS.equals(target)) {
+			clientPool.forEachValue(Long.MAX_VALUE, (other) -> {
+				if (other != this) {
+					other.sendText(RELAY_FIELD, payload);
+				}
+			});
+		} else {
+			boolean poolExists = UniJWorkerPool.forEachWorker(target, (workerName) -> {
+				UniJEndpoint worker = clientPool.get(workerName);
+				if (worker != null && worker != this) {
+					worker.sendText(RELAY_FIELD, payload);
+				}
+			});
+
+			if (!poolExists) {
+				notice("Could not relay message, because there is no client or group \""
+						+ target + "\"");
+			}
+		}
+	}
+
+	/**
+	 * @return      True for names that can't be given to a client, "*" addresses all clients
+	 */
+
+	static boolean isReservedName(String clientName) {
+		return clientName == null || ALL_CLIENTS.equals(clientName);
+	}
+
+	protected static void setRelayFilter(RelayFilter filter) {
+		relayFilter = filter;
+	}
+
+	/**
+	 * Answer from the procedure's result cache, using the raw parameter JSON as key. Parameters are only
+	 * bound if the result isn't cached, a cached reply is sent as the encoded frame with the call id appended
+	 * @param procedure         Procedure with a cache
+	 * @param procedureName     Name of the procedure
+	 * @param parser            Parser positioned behind the procedure name
+	 * @param parsed            Parse stage of the message
+	 * @param message           The whole message
+	 * @throws IOException
+	 */
+
+	private void executeCached(UniJProcedure procedure, String procedureName, JsonParser parser,
+	                           UniJEvents.MessageParsed parsed, String message) throws IOException {
+		parser.nextToken(); // [
+		int start = (int) parser.getTokenLocation().getCharOffset();
+		parser.skipChildren();
+		int end = (int) parser.getCurrentLocation().getCharOffset();
+		long callId = readCallId(parser, JsonToken.END_ARRAY);
+		commitParsed(parsed, procedureName, message.length());
+
+		String rawParameters = message.substring(start, end);
+		byte[] frame = procedure.cache.get(rawParameters);
+
+		if (frame == null) {
+			Object[] parameters = new Object[procedure.paramTypes.length];
+
+			try (JsonParser parameterParser = factory.createParser(rawParameters)) {
+				JsonToken token = parameterParser.nextToken(); // [
+				for (int i = 0; i < parameters.length && (token = parameterParser.nextValue()) != JsonToken.END_ARRAY; i++) {
+					parameters[i] = parameterParser.readValueAs(procedure.paramTypes[i]);
+				}
+			}
+
+			Object value = dispatch(procedure, procedureName, this.clientName, message.length(), parameters);
+
+			// Failures are not worth remembering
+			if (value == UniJProcedure.EXECUTION_FAILED) {
+				if (callId != NO_CALL_ID) {
+					replyError(this.clientName, procedureName, callId, executionFailed(procedureName));
+				} else {
+					UniJ.execute(this.clientName, procedureName, UniJProcedure.EXECUTION_FAILED_MESSAGE);
+				}
+				return;
+			}
+
+			// Everything but the call id, which differs from call to call
+			frame = ("{\"pro\":\"" + procedureName + "\",\"par\":" + writer.writeValueAsString(new Object[]{value}))
+					.getBytes(StandardCharsets.UTF_8);
+			procedure.cache.put(rawParameters, frame);
+		}
+
+		byte[] frameEnd = (callId == NO_CALL_ID ? "}" : ",\"rid\":" + callId + "}").getBytes(StandardCharsets.US_ASCII);
+		ByteBuffer reply = ByteBuffer.allocate(frame.length + frameEnd.length);
+		reply.put(frame).put(frameEnd).flip();
+
+		sendBinary(Priority.NORMAL, procedureName, reply, () -> { });
+	}
+
+	protected static void invalidateCache(String procedureName) {
+		UniJProcedure procedure = localProcedures.get(procedureName);
+		if (procedure != null && procedure.cache != null) {
+			procedure.cache.invalidate();
+		}
+	}
+
+	protected static CacheStatistics getCacheStatistics(String procedureName) {
+		UniJProcedure procedure = localProcedures.get(procedureName);
+		return (procedure == null || procedure.cache == null) ? null : procedure.cache.getStatistics();
+	}
+
+	/**
+	 * Check the rate limits of this client and take care of the message if they are exceeded
+	 * @param procedureName     Name of the called procedure
+	 * @param message           The raw message
+	 * @return                  True if the message may be executed right away
+	 */
+
+	private boolean admit(String procedureName, String message, boolean checkClientLimit,
+	                      boolean checkProcedureLimit) {
+		UniJRateLimiter clientPrototype = checkClientLimit ? clientRateLimit : null;
+		UniJRateLimiter procedurePrototype = (!checkProcedureLimit || procedureName == null)
+				? null : procedureRateLimits.get(procedureName);
+
+		if (clientPrototype == null && procedurePrototype == null) {
+			return true;
+		}
+
+		RateLimitAction action = rateLimitAction;
+		long maxWait = action == RateLimitAction.QUEUE ? maxQueueDelayNanos : 0;
+
+		UniJRateLimiter clientLimiter = null;
+		if (clientPrototype != null) {
+			clientLimiter = rateLimiter;
+			if (clientLimiter == null) {
+				clientLimiter = rateLimiter = clientPrototype.newBucket();
+			}
+		}
+		UniJRateLimiter procedureLimiter = procedurePrototype == null ? null : procedureRateLimiters
+				.computeIfAbsent(procedureName, (name) -> procedurePrototype.newBucket());
+
+		// Look at both buckets before taking a token, so a rejected message doesn't use up the other bucket.
+		// Only this client's messages use its buckets and Jetty delivers them one at a time
+		long now = System.nanoTime();
+		long wait = Math.max(clientLimiter == null ? 0 : clientLimiter.peek(now),
+				procedureLimiter == null ? 0 : procedureLimiter.peek(now));
+
+		if (wait > maxWait) {
+			wait = UniJRateLimiter.REJECTED;
+		} else {
+			wait = Math.max(clientLimiter == null ? 0 : clientLimiter.acquire(maxWait, now),
+					procedureLimiter == null ? 0 : procedureLimiter.acquire(maxWait, now));
+		}
+
+		if (wait == 0) {
+			return true;
+		}
+
+		limitedMessages.incrementAndGet();
+
+		if (wait > 0) {
+			queueMessage(message, wait);
+		} else if (action == RateLimitAction.DISCONNECT) {
+			disconnect("Rate limit exceeded");
+		} else {
+			throttle(procedureName, message);
+		}
+		return false;
+	}
+
+	private void queueMessage(String message, long delayNanos) {
+		scheduler().schedule(() -> {
+			// The client left while the message waited
+			if (!closed) {
+				handleMessage(message, false, false);
+			}
+		}, delayNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private static synchronized ScheduledExecutorService scheduler() {
+		if (scheduler == null) {
+			scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+				Thread thread = new Thread(runnable, "unij-scheduler");
+				thread.setDaemon(true);
+				return thread;
+			});
+			// Most call timeouts are cancelled because the answer came in time
+			scheduler.setRemoveOnCancelPolicy(true);
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Drop a message. Waiting callers get an error, everybody else at most one log message per second
+	 */
+
+	private void throttle(String procedureName, String message) {
+		String error = "Message for \"" + procedureName + "\" was dropped, because you exceeded your rate limit";
+
+		long callId = findCallId(message);
+		if (callId != NO_CALL_ID) {
+			replyError(this.clientName, procedureName, callId, error);
+			return;
+		}
+
+		notice(error);
+	}
+
+	/**
+	 * Log a message to the client unless it already got one during the last NOTICE_INTERVAL
+	 */
+
+	private void notice(String message) {
+		long now = System.nanoTime();
+		if (now - nextNotice >= 0) {
+			nextNotice = now + NOTICE_INTERVAL;
+			UniJ.logToClient(this.clientName, message);
+		}
+	}
+
+	/**
+	 * Find the call id of a message that can't or won't be parsed
+	 * @param message       Expected pattern: {"procedure":[param1],"cid":1}
+	 * @return              The call id or NO_CALL_ID
+	 */
+
+	private static long findCallId(String message) {
+		int callIdStart = message.lastIndexOf(",\"cid\":");
+		if (callIdStart >= 0) {
+			try {
+				return Long.parseLong(message.substring(callIdStart + 7, message.length() - 1).trim());
+			} catch (NumberFormatException e) {
+				// Not a call id after all
+			}
+		}
+		return NO_CALL_ID;
+	}
+
+	static String executionFailed(String procedureName) {
+		return "Procedure \"" + procedureName + "\" failed on the server";
+	}
+
+	private void disconnect(String reason) {
+		UniJ.log("Disconnecting client \"" + this.clientName + "\": " + reason);
+		if (session != null) {
+			try {
+				session.close(new CloseReason(CloseReason.CloseCodes.VIOLATED_POLICY, reason));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Limit the calls every client may make
+	 * @param callsPerSecond        Sustained rate, 0 removes the limit
+	 * @param burst                 Calls allowed at once after a quiet period
+	 */
+
+	protected static void setClientRateLimit(double callsPerSecond, int burst) {
+		clientRateLimit = callsPerSecond > 0 ? new UniJRateLimiter(callsPerSecond, burst) : null;
+		clientPool.forEachValue(Long.MAX_VALUE, (client) -> client.rateLimiter = null);
+	}
+
+	protected static void setProcedureRateLimit(String procedureName, double callsPerSecond, int burst) {
+		if (callsPerSecond > 0) {
+			procedureRateLimits.put(procedureName, new UniJRateLimiter(callsPerSecond, burst));
+		} else {
+			procedureRateLimits.remove(procedureName);
+		}
+		clientPool.forEachValue(Long.MAX_VALUE, (client) -> client.procedureRateLimiters.remove(procedureName));
+	}
+
+	protected static void setRateLimitAction(RateLimitAction action, long maxQueueDelayMillis) {
+		rateLimitAction = action;
+		maxQueueDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxQueueDelayMillis);
+	}
+
+	/**
+	 * @return      Number of throttled, queued or disconnecting messages per connected client that exceeded a limit
+	 */
+
+	protected static Map<String, Long> getRateLimitedClients() {
+		Map<String, Long> limited = new HashMap<>();
+		clientPool.forEach(Long.MAX_VALUE, (name, client) -> {
+			long count = client.limitedMessages.get();
+			if (count > 0) {
+				limited.put(name, count);
+			}
+		});
+		return limited;
+	}
+
+	/**
+	 * Skip surplus parameters and read the optional call id behind the parameter array
+	 * @param parser        Parser positioned inside or at the end of the parameter array
+	 * @param token         Last token the parser returned
+	 * @return              The call id or NO_CALL_ID if the client doesn't wait for a reply
+	 * @throws IOException
+	 */
+
+	private static long readCallId(JsonParser parser, JsonToken token) throws IOException {
+		while (token != JsonToken.END_ARRAY) {
+			token = parser.nextToken();
+			if (token == null) {
+				return NO_CALL_ID;
+			}
+			parser.skipChildren();
+		}
+		return "cid".equals(parser.nextFieldName()) ? parser.nextLongValue(NO_CALL_ID) : NO_CALL_ID;
 	}
 
 	/**
@@ -124,7 +692,11 @@ public class UniJEndpoint extends Endpoint implements MessageHandler.Whole<Strin
 	@Override
 	public void onClose(Session session, CloseReason reason) {
 		UniJ.log("Client disconnected because of " + reason);
-		clientPool.remove(this.clientName);
+		closed = true;
+		if (clientPool.remove(this.clientName, this)) {
+			UniJLifecycle.disconnected(this.clientName, String.valueOf(reason.getReasonPhrase()));
+			releaseClient();
+		}
 		super.onClose(session, reason);
 	}
 
@@ -138,22 +710,218 @@ public class UniJEndpoint extends Endpoint implements MessageHandler.Whole<Strin
 	@Override
 	public void onError(Session session, Throwable cause) {
 		UniJ.log("Error: " + cause + " happened with client \"" + this.clientName + "\"");
-		clientPool.remove(clientName);
+		closed = true;
+		if (clientPool.remove(this.clientName, this)) {
+			UniJLifecycle.disconnected(this.clientName, String.valueOf(cause));
+			releaseClient();
+		}
 		super.onError(session, cause);
 	}
 
+	/**
+	 * Take a disconnected client out of its worker pools and fail the calls it will never answer
+	 */
+
+	private void releaseClient() {
+		UniJWorkerPool.leaveAll(this.clientName);
+
+		pendingCalls.forEach((callId, call) -> {
+			if (call.client == this && pendingCalls.remove(callId, call)) {
+				call.result.completeExceptionally(new RemoteProcedureException("Client \"" + this.clientName
+						+ "\" disconnected before answering \"" + call.procedureName + "\""));
+			}
+		});
+	}
+
 	/**
 	 * Send a raw text message to the remote endpoint aka. client
 	 * @param message       String to send
 	 */
 
 	public void sendText(String message) {
-		remoteEndpoint.sendText(message);
+		sendText(null, message);
+	}
+
+	/**
+	 * Send a message and record how long the asynchronous send takes if Flight Recorder asks for it
+	 * @param procedureName     Name of the procedure the message executes, only used for recording
+	 * @param message           String to send
+	 */
+
+	protected void sendText(String procedureName, String message) {
+		sendText(procedureName, message, null);
+	}
+
+	/**
+	 * Send a message and get notified once it has been written
+	 * @param procedureName     Name of the procedure the message executes, only used for recording
+	 * @param message           String to send
+	 * @param onSent            Called when the send completed or failed, may be null
+	 */
+
+	protected void sendText(String procedureName, String message, SendHandler onSent) {
+		sendText(Priority.NORMAL, procedureName, message, onSent);
+	}
+
+	/**
+	 * Queue a message in one of the client's lanes, messages longer than the chunk size are sent in chunks
+	 * @param priority          Lane of the message
+	 * @param procedureName     Name of the procedure the message executes, only used for recording
+	 * @param message           String to send
+	 * @param onSent            Called when the send completed or failed, may be null
+	 */
+
+	protected void sendText(Priority priority, String procedureName, String message, SendHandler onSent) {
+		UniJCapture.record(UniJCapture.OUTBOUND, this.sessionId, message);
+
+		if (message.length() > chunkSize) {
+			UniJChunks.Outgoing chunked = new UniJChunks.Outgoing(nextChunkedMessageId.getAndIncrement(),
+					procedureName, message, chunkSize, onSent);
+			outbox.add(priority, new UniJOutbox.Frame(procedureName, null, null, chunked, onSent));
+		} else {
+			outbox.add(priority, new UniJOutbox.Frame(procedureName, message, null, null, onSent));
+		}
+	}
+
+	/**
+	 * Hand a frame the outbox picked to the websocket and record how long the asynchronous send takes
+	 * if Flight Recorder asks for it
+	 */
+
+	private void transmit(UniJOutbox.Frame frame, SendHandler onSent) {
+		UniJEvents.SendCompleted sent = new UniJEvents.SendCompleted();
+		sent.begin();
+		int length = frame.text != null ? frame.text.length() : frame.binary.remaining();
+
+		SendHandler handler = result -> {
+			sent.end();
+			UniJEvents.commit(sent, frame.procedureName, this.clientName, length);
+			onSent.onResult(result);
+		};
+
+		if (frame.text != null) {
+			remoteEndpoint.sendText(frame.text, handler);
+		} else {
+			remoteEndpoint.sendBinary(frame.binary, handler);
+		}
+	}
+
+	/**
+	 * Send a UTF-8 encoded message as binary frame, which the UniJ clients decode like a text frame
+	 * @param procedureName     Name of the procedure the message executes, only used for recording
+	 * @param message           Encoded message, must not be touched until onSent ran
+	 * @param onSent            Called when the send completed or failed
+	 */
+
+	protected void sendBinary(String procedureName, ByteBuffer message, Runnable onSent) {
+		sendBinary(Priority.NORMAL, procedureName, message, onSent);
+	}
+
+	protected void sendBinary(Priority priority, String procedureName, ByteBuffer message, Runnable onSent) {
+		if (message.remaining() > chunkSize) {
+			String text = StandardCharsets.UTF_8.decode(message.duplicate()).toString();
+			onSent.run();
+			sendText(priority, procedureName, text, null);
+			return;
+		}
+
+		if (UniJCapture.isCapturing()) {
+			UniJCapture.record(UniJCapture.OUTBOUND, this.sessionId,
+					StandardCharsets.UTF_8.decode(message.duplicate()).toString());
+		}
+
+		outbox.add(priority, new UniJOutbox.Frame(procedureName, null, message, null, result -> onSent.run()));
+	}
+
+	/**
+	 * Queue a message that replaces any unsent message with the same procedure and key. Only one
+	 * conflated message is in flight at a time, the next one is picked when the socket is writable again
+	 * @param procedureName     Name of the procedure, only used for recording
+	 * @param conflationKey     Procedure and key of the message
+	 * @param message           String to send
+	 */
+
+	private void sendConflated(String procedureName, String conflationKey, String message) {
+		synchronized (conflatedMessages) {
+			if (sendingConflated) {
+				conflatedMessages.put(conflationKey, message);
+				return;
+			}
+			sendingConflated = true;
+		}
+		sendText(procedureName, message, this::sendNextConflated);
+	}
+
+	private void sendNextConflated(SendResult result) {
+		String message;
+
+		synchronized (conflatedMessages) {
+			if (!result.isOK() || conflatedMessages.isEmpty()) {
+				// A failed socket won't become writable again
+				if (!result.isOK()) {
+					conflatedMessages.clear();
+				}
+				sendingConflated = false;
+				return;
+			}
+
+			Iterator<String> oldest = conflatedMessages.values().iterator();
+			message = oldest.next();
+			oldest.remove();
+		}
+		sendText(null, message, this::sendNextConflated);
 	}
 	
 	
 
 
+	/**
+	 * Hand a procedure call to the client without serializing it
+	 * @param procedureName     Name of the client's procedure
+	 * @param parameters        Parameters for the procedure
+	 * @return                  False if the client needs a serialized message, which WebSocket clients always do
+	 */
+
+	protected boolean deliverDirectly(String procedureName, Object[] parameters) {
+		return false;
+	}
+
+	protected String getClientName() {
+		return clientName;
+	}
+
+	long getSessionId() {
+		return sessionId;
+	}
+
+	/**
+	 * Add a client that isn't connected through a WebSocket, see UniJLocalClient
+	 * @param client            The client
+	 * @param clientName        Desired name of the client
+	 * @return                  False if the name is already taken
+	 */
+
+	static boolean addLocalClient(UniJEndpoint client, String clientName) {
+		client.clientName = clientName;
+		if (isReservedName(clientName) || clientPool.putIfAbsent(clientName, client) != null) {
+			return false;
+		}
+		UniJCapture.record(UniJCapture.NAMED, client.sessionId, clientName);
+		UniJ.log("Local client \"" + clientName + "\" just connected");
+		UniJLifecycle.connected(clientName);
+		UniJLifecycle.ready(clientName);
+		return true;
+	}
+
+	static void removeLocalClient(UniJEndpoint client) {
+		client.closed = true;
+		if (clientPool.remove(client.clientName, client)) {
+			UniJ.log("Local client \"" + client.clientName + "\" disconnected");
+			UniJLifecycle.disconnected(client.clientName, "Local client closed");
+			client.releaseClient();
+		}
+	}
+
 	/**
 	 * Actively remove a client from the pool
 	 * @param clientName        Name of the client
@@ -163,6 +931,8 @@ public class UniJEndpoint extends Endpoint implements MessageHandler.Whole<Strin
 		UniJEndpoint clientToRemove = clientPool.remove(clientName);
 		if (clientToRemove == null) {
 			UniJ.log("There is no client \"" + clientName + "\" which could be removed");
+		} else {
+			UniJLifecycle.disconnected(clientName, "Removed from the client pool");
 		}
 	}
 
@@ -188,6 +958,11 @@ public class UniJEndpoint extends Endpoint implements MessageHandler.Whole<Strin
 			UniJ.logToClient(oldName, "Could not change your name to \"" + newName
 					+ "\", because I don't know you...");
 
+		} else if (isReservedName(newName)) {
+			UniJ.log("Client \"" + oldName + "\" failed changing its name to reserved name \"" + newName + "\"");
+			UniJ.logToClient(oldName, "Could not change your name to \"" + newName
+					+ "\", because it is reserved");
+
 		} else if (clientPool.containsKey(newName)) {
 			UniJ.log("Client \"" + oldName + "\" failed changing its name to \"" + newName
 					+ "\", because someone else already has it");
@@ -198,23 +973,42 @@ public class UniJEndpoint extends Endpoint implements MessageHandler.Whole<Strin
 			UniJEndpoint client = clientPool.remove(oldName);
 			client.clientName = newName;
 			clientPool.put(newName, client);
+			UniJCapture.record(UniJCapture.NAMED, client.sessionId, newName);
+			UniJWorkerPool.rename(oldName, newName);
+			UniJLifecycle.renamed(oldName, newName);
 
 			// Tell client its new name
-			UniJ.execute(newName, "setClientName", newName);
+			execute(Priority.HIGH, newName, "setClientName", newName);
 			UniJ.logToClient(newName, "You changed your name to \"" + newName + "\"");
 		}
 	}
 
 
 	protected static void addProcedure(String procedureName, Object executor, Method procedure) {
+		putProcedure(procedureName, new UniJProcedure(executor, procedure));
+	}
+	
+	protected static void addProcedure(Object procedureExecutor) throws IllegalArgumentException {
+		findProcedures(procedureExecutor).forEach(UniJEndpoint::putProcedure);
+	}
+
+	private static void putProcedure(String procedureName, UniJProcedure procedure) {
 		if (localProcedures.containsKey(procedureName)) {
 			UniJ.log("Procedure \"" + procedureName + "\" was overwritten");
 		}
-		localProcedures.put(procedureName, new UniJProcedure(executor, procedure));
+		localProcedures.put(procedureName, procedure);
 	}
-	
-	protected static void addProcedure(Object procedureExecutor) throws IllegalArgumentException {
 
+	/**
+	 * Collect all methods annotated with @Procedure
+	 * @param procedureExecutor     Instance or class containing the procedures
+	 * @return                      Procedures by name
+	 * @throws IllegalArgumentException     If there are no procedures
+	 */
+
+	static Map<String, UniJProcedure> findProcedures(Object procedureExecutor) throws IllegalArgumentException {
+
+		Map<String, UniJProcedure> procedures = new LinkedHashMap<>();
 		Class procedureClass = procedureExecutor.getClass();
 
 		// For static methods
@@ -231,8 +1025,8 @@ public class UniJEndpoint extends Endpoint implements MessageHandler.Whole<Strin
 				method.setAccessible(true);
 
 				hadNoProcedures = false;
-				String clientName = method.getAnnotation(Procedure.class).value();
-				addProcedure(clientName, procedureExecutor, method);
+				String procedureName = method.getAnnotation(Procedure.class).value();
+				procedures.put(procedureName, new UniJProcedure(procedureExecutor, method));
 			}
 		}
 
@@ -240,6 +1034,57 @@ public class UniJEndpoint extends Endpoint implements MessageHandler.Whole<Strin
 			throw new IllegalArgumentException("UniJ: Class \"" + procedureClass.getSimpleName() + 
 					"\" was passed to UniJ.addProcedure() but had no @Procedure annotations");
 		}
+		return procedures;
+	}
+
+	static UniJProcedure getProcedure(String procedureName) {
+		return localProcedures.get(procedureName);
+	}
+
+	/**
+	 * Execute a local procedure for a client, shared by WebSocket clients and local clients
+	 * @param procedure         The procedure
+	 * @param procedureName     Name of the procedure
+	 * @param clientName        Name of the calling client
+	 * @param payloadLength     Length of the raw message, only used for recording
+	 * @param parameters        Parameters matching the procedure's parameter types
+	 * @return                  Return value of the procedure or UniJProcedure.EXECUTION_FAILED if it threw
+	 */
+
+	static Object dispatch(UniJProcedure procedure, String procedureName, String clientName, int payloadLength,
+	                       Object[] parameters) {
+		UniJEvents.MessageDispatched dispatched = new UniJEvents.MessageDispatched();
+		UniJEvents.commit(dispatched, procedureName, clientName, payloadLength);
+
+		UniJEvents.HandlerCompleted handled = new UniJEvents.HandlerCompleted();
+		handled.begin();
+		Object result = procedure.execute(parameters);
+		handled.end();
+		UniJEvents.commit(handled, procedureName, clientName, payloadLength);
+
+		return result;
+	}
+
+	/**
+	 * Match Java objects to the parameter types of a procedure without serializing them. Objects of the
+	 * right type are passed as they are, others are converted
+	 * @param procedure         The procedure
+	 * @param parameters        Objects passed by the caller
+	 * @return                  Parameters for UniJProcedure.execute()
+	 * @throws IllegalArgumentException     If an object can't be converted
+	 */
+
+	static Object[] bindParameters(UniJProcedure procedure, Object[] parameters) throws IllegalArgumentException {
+		Object[] bound = new Object[procedure.paramTypes.length];
+
+		// Missing parameters stay null
+		for (int i = 0; i < bound.length && i < parameters.length; i++) {
+			Class<?> type = procedure.paramTypes[i].isPrimitive()
+					? ClassUtil.wrapperType(procedure.paramTypes[i]) : procedure.paramTypes[i];
+			Object parameter = parameters[i];
+			bound[i] = (parameter == null || type.isInstance(parameter)) ? parameter : mapper.convertValue(parameter, type);
+		}
+		return bound;
 	}
 	
 	protected static void removeProcedure(String clientName) {
@@ -250,14 +1095,54 @@ public class UniJEndpoint extends Endpoint implements MessageHandler.Whole<Strin
 	}
 	
 	protected static void execute(String clientName, String procedureName, Object... parameters) {
+		execute(Priority.NORMAL, clientName, procedureName, parameters);
+	}
+
+	protected static void execute(Priority priority, String clientName, String procedureName, Object... parameters) {
 		UniJEndpoint client = clientPool.get(clientName);
 		
+		if (client == null) {
+			UniJ.log("Could not execute remote procedure \"" + procedureName + "\" from client \"" +
+					clientName + "\", because the client doesn't exist");
+		} else if (!client.deliverDirectly(procedureName, parameters)) {
+			try {
+				if (pooledEncoding) {
+					ByteBuffer message = encodeMessage(procedureName, clientName, parameters);
+					client.sendBinary(priority, procedureName, message, () -> UniJEncoder.release(message));
+					return;
+				}
+
+				UniJEvents.MessageSerialized serialized = new UniJEvents.MessageSerialized();
+				serialized.begin();
+				String message = buildMessage(procedureName, parameters);
+				serialized.end();
+				UniJEvents.commit(serialized, procedureName, clientName, message.length());
+
+				client.sendText(priority, procedureName, message, null);
+			} catch (IOException e) {
+				UniJ.log("Could not execute remote procedure \"" + procedureName + "\" from client \"" +
+						clientName + "\", because the parameters are invalid");
+			}
+		}
+	}
+
+	protected static void executeConflated(String clientName, String procedureName, String key,
+	                                       Object... parameters) {
+		UniJEndpoint client = clientPool.get(clientName);
+
 		if (client == null) {
 			UniJ.log("Could not execute remote procedure \"" + procedureName + "\" from client \"" +
 					clientName + "\", because the client doesn't exist");
 		} else {
 			try {
-				client.sendText(buildMessage(procedureName, parameters));
+				// Conflated messages wait as strings to be replaced, so they are never pooled
+				UniJEvents.MessageSerialized serialized = new UniJEvents.MessageSerialized();
+				serialized.begin();
+				String message = buildMessage(procedureName, parameters);
+				serialized.end();
+				UniJEvents.commit(serialized, procedureName, clientName, message.length());
+
+				client.sendConflated(procedureName, procedureName + '\u0000' + key, message);
 			} catch (JsonProcessingException e) {
 				UniJ.log("Could not execute remote procedure \"" + procedureName + "\" from client \"" +
 						clientName + "\", because the parameters are invalid");
@@ -265,32 +1150,235 @@ public class UniJEndpoint extends Endpoint implements MessageHandler.Whole<Strin
 		}
 	}
 
+	/**
+	 * Execute a remote procedure and wait for the client to send back the result
+	 * @param clientName        Name of the client
+	 * @param procedureName     Name of the client's procedure
+	 * @param parameters        Parameters for the client's procedure
+	 * @return                  Completes with the result or a RemoteProcedureException
+	 */
+
+	protected static CompletableFuture<JsonNode> call(String clientName, String procedureName, Object... parameters) {
+		CompletableFuture<JsonNode> result = new CompletableFuture<>();
+		UniJEndpoint client = clientPool.get(clientName);
+
+		if (client == null) {
+			result.completeExceptionally(new RemoteProcedureException("Could not execute remote procedure \""
+					+ procedureName + "\" from client \"" + clientName + "\", because the client doesn't exist"));
+			return result;
+		}
+
+		long callId = nextCallId.incrementAndGet();
+
+		try {
+			String message = buildCall(procedureName, callId, parameters);
+			PendingCall call = new PendingCall(client, procedureName, result);
+			pendingCalls.put(callId, call);
+
+			long timeout = callTimeoutMillis;
+			if (timeout > 0) {
+				ScheduledFuture<?> expiry = scheduler().schedule(() -> {
+					if (pendingCalls.remove(callId, call)) {
+						result.completeExceptionally(new RemoteProcedureException("Client \"" + client.clientName
+								+ "\" did not answer \"" + procedureName + "\" within " + timeout + " ms"));
+					}
+				}, timeout, TimeUnit.MILLISECONDS);
+				result.whenComplete((value, error) -> expiry.cancel(false));
+			}
+
+			client.sendText(procedureName, message);
+		} catch (JsonProcessingException e) {
+			result.completeExceptionally(new RemoteProcedureException("Could not execute remote procedure \""
+					+ procedureName + "\" from client \"" + clientName + "\", because the parameters are invalid"));
+		}
+		return result;
+	}
+
+	protected static void setCallTimeout(long millis) {
+		callTimeoutMillis = millis;
+	}
+
+	/**
+	 * Settle a call of the server with the answer of this client. Answers the server waits for don't count
+	 * against the rate limits, a dropped answer would leave the call hanging. Any other answer counts like a call
+	 * @param answerType            RESULT_FIELD or ERROR_FIELD
+	 * @param parser                Parser positioned behind the field name of {"unijResult":[callId,result]}
+	 * @param parsed                Parse stage of the message
+	 * @param message               The whole message
+	 * @param checkClientLimit      See handleMessage()
+	 * @param checkProcedureLimit   See handleMessage()
+	 * @throws IOException
+	 */
+
+	private void receiveAnswer(String answerType, JsonParser parser, UniJEvents.MessageParsed parsed, String message,
+	                           boolean checkClientLimit, boolean checkProcedureLimit) throws IOException {
+		parser.nextToken(); // [
+		long callId = parser.nextLongValue(NO_CALL_ID);
+		PendingCall call = pendingCalls.get(callId);
+
+		if ((call == null || call.client != this) && (checkClientLimit || checkProcedureLimit)
+				&& !admit(answerType, message, checkClientLimit, checkProcedureLimit)) {
+			commitParsed(parsed, answerType, message.length());
+			return;
+		}
+
+		parser.nextToken();
+		JsonNode answer = parser.readValueAsTree();
+		commitParsed(parsed, answerType, message.length());
+
+		if (call == null) {
+			return;
+		}
+
+		// Call ids are sequential, so only the called client may answer
+		if (call.client != this) {
+			UniJ.log("Client \"" + this.clientName + "\" tried to answer call " + callId + " of client \""
+					+ call.client.clientName + "\"");
+			return;
+		}
+
+		if (pendingCalls.remove(callId, call)) {
+			if (RESULT_FIELD.equals(answerType)) {
+				call.result.complete(answer == null ? NullNode.getInstance() : answer);
+			} else {
+				call.result.completeExceptionally(
+						new RemoteProcedureException(answer == null ? "null" : answer.asText()));
+			}
+		}
+	}
+
 	protected static void executeAll(String procedureName, Object... parameters) {
+		executeAll(Priority.NORMAL, procedureName, parameters);
+	}
+
+	protected static void executeAll(Priority priority, String procedureName, Object... parameters) {
 
 		if (clientPool.isEmpty()) {
 			UniJ.log("Could not execute remote procedure \"" + procedureName + "\" because no clients" +
 					" are connected");
 		} else {
 			try {
+				if (pooledEncoding) {
+					executeAllPooled(priority, procedureName, parameters);
+					return;
+				}
+
+				UniJEvents.MessageSerialized serialized = new UniJEvents.MessageSerialized();
+				serialized.begin();
 				String message = buildMessage(procedureName, parameters);
+				serialized.end();
+				UniJEvents.commit(serialized, procedureName, null, message.length());
+
 				// TODO: Check the parallelismThreshold for performance
-				clientPool.forEachValue(Long.MAX_VALUE, (client) -> client.sendText(message));
+				clientPool.forEachValue(Long.MAX_VALUE, (client) -> client.sendText(priority, procedureName, message, null));
 				
-			} catch (JsonProcessingException e) {
+			} catch (IOException e) {
 				UniJ.log("Could not execute remote procedure \"" + procedureName + "\" because the" +
 						" parameters are invalid");
 			}
 		}
 	}
 	
+	/**
+	 * Share one encoded buffer between all clients, it goes back to the pool after the last send completed
+	 */
+
+	private static void executeAllPooled(Priority priority, String procedureName, Object... parameters)
+			throws IOException {
+		ByteBuffer message = encodeMessage(procedureName, null, parameters);
+
+		// One extra count so the buffer isn't released while still handing it out
+		AtomicInteger unfinishedSends = new AtomicInteger(1);
+		Runnable onSent = () -> {
+			if (unfinishedSends.decrementAndGet() == 0) {
+				UniJEncoder.release(message);
+			}
+		};
+
+		clientPool.forEachValue(Long.MAX_VALUE, (client) -> {
+			unfinishedSends.incrementAndGet();
+			client.sendBinary(priority, procedureName, message.duplicate(), onSent);
+		});
+		onSent.run();
+	}
+
+	private static ByteBuffer encodeMessage(String procedureName, String clientName, Object... parameters)
+			throws IOException {
+		UniJEvents.MessageSerialized serialized = new UniJEvents.MessageSerialized();
+		serialized.begin();
+		ByteBuffer message = UniJEncoder.encode(procedureName, parameters);
+		serialized.end();
+		UniJEvents.commit(serialized, procedureName, clientName, message.remaining());
+		return message;
+	}
+
+	protected static void setPooledEncoding(boolean enabled) {
+		pooledEncoding = enabled;
+	}
+
 	private static String buildMessage(String procedureName, Object... parameters) throws JsonProcessingException{
 		return "{\"pro\":\"" + procedureName +
 				"\",\"par\":" + writer.writeValueAsString(parameters) + "}";
 	}
 
+	/**
+	 * Answer a call of a client that waits for the result
+	 * @param clientName        Name of the calling client
+	 * @param procedureName     Name of the executed procedure
+	 * @param callId            Id the client sent along with the call
+	 * @param result            Empty for procedures without return value
+	 */
+
+	protected static void reply(String clientName, String procedureName, long callId, Object... result) {
+		UniJEndpoint client = clientPool.get(clientName);
+
+		if (client != null) {
+			try {
+				UniJEvents.MessageSerialized serialized = new UniJEvents.MessageSerialized();
+				serialized.begin();
+				String message = buildReply(procedureName, callId, result);
+				serialized.end();
+				UniJEvents.commit(serialized, procedureName, clientName, message.length());
+
+				// Same lane as execute(), so the reply doesn't overtake what the procedure sent before returning
+				client.sendText(Priority.NORMAL, procedureName, message, null);
+			} catch (JsonProcessingException e) {
+				replyError(clientName, procedureName, callId, "Result of procedure \"" + procedureName
+						+ "\" could not be serialized");
+			}
+		}
+	}
+
+	protected static void replyError(String clientName, String procedureName, long callId, String error) {
+		UniJEndpoint client = clientPool.get(clientName);
+
+		if (client != null) {
+			try {
+				client.sendText(Priority.NORMAL, procedureName, "{\"pro\":\"" + procedureName + "\",\"err\":"
+						+ writer.writeValueAsString(error) + ",\"rid\":" + callId + "}", null);
+			} catch (JsonProcessingException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private static String buildCall(String procedureName, long callId, Object... parameters) throws JsonProcessingException {
+		return "{\"pro\":\"" + procedureName +
+				"\",\"par\":" + writer.writeValueAsString(parameters) + ",\"cid\":" + callId + "}";
+	}
+
+	private static String buildReply(String procedureName, long callId, Object... result) throws JsonProcessingException {
+		return "{\"pro\":\"" + procedureName +
+				"\",\"par\":" + writer.writeValueAsString(result) + ",\"rid\":" + callId + "}";
+	}
+
 
 
 
+	protected static Set<String> getClientNamesView() {
+		return clientNamesView;
+	}
+
 	protected static Set<String> getClientNames() {
 		Set<String> names = new HashSet<>();
 		clientPool.forEachKey(Long.MAX_VALUE, names::add);
@@ -300,4 +1388,21 @@ public class UniJEndpoint extends Endpoint implements MessageHandler.Whole<Strin
 	protected static int getNumberOfConnectedClients() {
 		return clientPool.size();
 	}
+
+	protected static int getQueuedMessages(String clientName) {
+		UniJEndpoint client = clientPool.get(clientName);
+		return client == null ? 0 : client.outbox.size();
+	}
+
+	private static class PendingCall {
+		final UniJEndpoint client;
+		final String procedureName;
+		final CompletableFuture<JsonNode> result;
+
+		PendingCall(UniJEndpoint client, String procedureName, CompletableFuture<JsonNode> result) {
+			this.client = client;
+			this.procedureName = procedureName;
+			this.result = result;
+		}
+	}
 }
@@ -0,0 +1,93 @@
+package unij;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for each stage of a UniJ message. All events are disabled by default
+ * and get enabled by recording with the settings in unij/unij.jfc, i.e.
+ * -XX:StartFlightRecording:settings=unij.jfc,filename=unij.jfr
+ *
+ * Fields are only filled in when an event is actually committed, so a disabled event costs no more
+ * than an allocation the JIT can remove.
+ */
+
+final class UniJEvents {
+
+	private UniJEvents() {
+	}
+
+	/**
+	 * Fill in the fields of an event and commit it, if the recording wants it
+	 * @param event             Event that has been begun and ended
+	 * @param procedureName     Name of the procedure the message belongs to
+	 * @param clientName        Name of the client or null for all clients
+	 * @param payloadLength     Length of the raw message
+	 */
+
+	static void commit(MessageEvent event, String procedureName, String clientName, int payloadLength) {
+		if (event.shouldCommit()) {
+			event.procedure = procedureName;
+			event.client = clientName;
+			event.payloadLength = payloadLength;
+			event.commit();
+		}
+	}
+
+	@Category("UniJ")
+	@Enabled(false)
+	@StackTrace(false)
+	abstract static class MessageEvent extends Event {
+
+		@Label("Procedure")
+		String procedure;
+
+		@Label("Client")
+		String client;
+
+		@Label("Payload Length")
+		@Description("Number of characters of the raw JSON message")
+		int payloadLength;
+	}
+
+	@Name("unij.MessageReceived")
+	@Label("Message Received")
+	@Description("Complete handling of a message in UniJEndpoint.onMessage")
+	static class MessageReceived extends MessageEvent {
+	}
+
+	@Name("unij.MessageParsed")
+	@Label("Message Parsed")
+	@Description("Parsing the procedure name and binding the parameters with Jackson")
+	static class MessageParsed extends MessageEvent {
+	}
+
+	@Name("unij.MessageDispatched")
+	@Label("Message Dispatched")
+	@Description("Parsed message is handed to its procedure")
+	static class MessageDispatched extends MessageEvent {
+	}
+
+	@Name("unij.HandlerCompleted")
+	@Label("Handler Completed")
+	@Description("Execution of the procedure via UniJProcedure.execute")
+	static class HandlerCompleted extends MessageEvent {
+	}
+
+	@Name("unij.MessageSerialized")
+	@Label("Message Serialized")
+	@Description("Building an outgoing message including its parameters")
+	static class MessageSerialized extends MessageEvent {
+	}
+
+	@Name("unij.SendCompleted")
+	@Label("Send Completed")
+	@Description("From handing a message to the WebSocket until the asynchronous send finished")
+	static class SendCompleted extends MessageEvent {
+	}
+}
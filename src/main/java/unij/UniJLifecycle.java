@@ -0,0 +1,111 @@
+package unij;
+
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Hands connection events to the UniJListeners and completes futures that wait for clients. Everything
+ * runs on one background thread, so listeners see events in order and the websocket threads never wait.
+ */
+
+class UniJLifecycle {
+
+	private static final CopyOnWriteArrayList<UniJListener> listeners = new CopyOnWriteArrayList<>();
+	private static final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+	private static ExecutorService events;
+
+	static void addListener(UniJListener listener) {
+		listeners.add(listener);
+	}
+
+	static void removeListener(UniJListener listener) {
+		listeners.remove(listener);
+	}
+
+	static void connected(String clientName) {
+		dispatch((listener) -> listener.onConnect(clientName));
+		checkWaiters();
+	}
+
+	static void ready(String clientName) {
+		dispatch((listener) -> listener.onReady(clientName));
+	}
+
+	static void renamed(String oldName, String newName) {
+		dispatch((listener) -> listener.onRename(oldName, newName));
+		checkWaiters();
+	}
+
+	static void disconnected(String clientName, String reason) {
+		dispatch((listener) -> listener.onDisconnect(clientName, reason));
+	}
+
+	/**
+	 * Wait until the client pool matches a condition, it is checked right away and after every connect
+	 * and rename
+	 * @param condition     Checked on the thread that changed the client pool, should be quick
+	 * @return              Completes on the UniJ event thread once the condition holds
+	 */
+
+	static CompletableFuture<Void> await(BooleanSupplier condition) {
+		Waiter waiter = new Waiter(condition);
+		waiters.add(waiter);
+		checkWaiters();
+		return waiter.future;
+	}
+
+	private static void checkWaiters() {
+		for (Iterator<Waiter> iterator = waiters.iterator(); iterator.hasNext(); ) {
+			Waiter waiter = iterator.next();
+
+			// Cancelled by the caller
+			if (waiter.future.isDone()) {
+				iterator.remove();
+			} else if (waiter.condition.getAsBoolean() && waiters.remove(waiter)) {
+				events().execute(() -> waiter.future.complete(null));
+			}
+		}
+	}
+
+	private static void dispatch(Consumer<UniJListener> event) {
+		if (listeners.isEmpty()) {
+			return;
+		}
+
+		events().execute(() -> {
+			for (UniJListener listener : listeners) {
+				try {
+					event.accept(listener);
+				} catch (RuntimeException e) {
+					UniJ.log("Listener " + listener + " failed: " + e);
+				}
+			}
+		});
+	}
+
+	private static synchronized ExecutorService events() {
+		if (events == null) {
+			events = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "unij-lifecycle");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return events;
+	}
+
+	private static class Waiter {
+		final BooleanSupplier condition;
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+
+		Waiter(BooleanSupplier condition) {
+			this.condition = condition;
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package unij;
+
+/**
+ * Gets notified about clients of the standard UniJ websocket and local clients. Listeners are called one
+ * event after another on a UniJ thread, never on the thread that handles the connection
+ */
+
+public interface UniJListener {
+
+	/**
+	 * A client joined the client pool and can be addressed by name
+	 * @param clientName        Name the server gave the client
+	 */
+
+	default void onConnect(String clientName) {
+	}
+
+	/**
+	 * The client has been told that it is registered, its onReady callback runs now
+	 * @param clientName        Name of the client at the time it was told
+	 */
+
+	default void onReady(String clientName) {
+	}
+
+	/**
+	 * A client changed its name
+	 * @param oldName           Previous name of the client
+	 * @param newName           Current name of the client
+	 */
+
+	default void onRename(String oldName, String newName) {
+	}
+
+	/**
+	 * A client left the client pool
+	 * @param clientName        Last name of the client
+	 * @param reason            Why the client left
+	 */
+
+	default void onDisconnect(String clientName, String reason) {
+	}
+}
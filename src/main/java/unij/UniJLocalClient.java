@@ -0,0 +1,319 @@
+package unij;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UniJ client living in the same JVM. It is part of the client pool like any WebSocket client, so the server
+ * addresses it by name, but calls are handed over as Java objects on the calling thread instead of going
+ * through a socket.
+ *
+ * In copy mode every call is serialized to JSON and parsed again exactly like a WebSocket message, which
+ * keeps the semantics strict, i.e. for tests.
+ */
+
+public class UniJLocalClient implements AutoCloseable {
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final boolean copyMode;
+	private final LocalEndpoint endpoint = new LocalEndpoint();
+	private final Map<String, UniJProcedure> procedures = new ConcurrentHashMap<>();
+
+	private final AtomicLong nextCallId = new AtomicLong();
+	// Copy mode only: calls to the server waiting for the reply
+	private final Map<Long, LocalCall<?>> pendingCalls = new ConcurrentHashMap<>();
+
+	/**
+	 * Connect a local client, use UniJ.connectLocalClient()
+	 * @param clientName        Name of the client
+	 * @param copyMode          Serialize every call instead of handing over objects
+	 * @throws IllegalArgumentException     If a client with this name is already connected or the name is reserved
+	 */
+
+	UniJLocalClient(String clientName, boolean copyMode) throws IllegalArgumentException {
+		this.copyMode = copyMode;
+		if (UniJEndpoint.isReservedName(clientName)) {
+			throw new IllegalArgumentException("UniJ: The client name \"" + clientName + "\" is reserved");
+		}
+		if (!UniJEndpoint.addLocalClient(endpoint, clientName)) {
+			throw new IllegalArgumentException("UniJ: There already is a client with the name \"" + clientName + "\"");
+		}
+	}
+
+	/**
+	 * Add procedures the server can execute on this client by passing a class or instance with
+	 * methods annotated with @Procedure
+	 * @param procedureExecutor         Contains the procedures
+	 * @throws IllegalArgumentException
+	 */
+
+	public void addProcedure(Object procedureExecutor) throws IllegalArgumentException {
+		procedures.putAll(UniJEndpoint.findProcedures(procedureExecutor));
+	}
+
+	public void removeProcedure(String procedureName) {
+		procedures.remove(procedureName);
+	}
+
+	/**
+	 * Execute a procedure of the server and ignore its result
+	 * @param procedureName     Name of the server's procedure
+	 * @param parameters        Parameters for the procedure
+	 */
+
+	public void execute(String procedureName, Object... parameters) {
+		if (!copyMode) {
+			call(Object.class, procedureName, parameters);
+			return;
+		}
+
+		// Without a call id the server doesn't answer
+		try {
+			endpoint.onMessage("{\"" + procedureName + "\":" + mapper.writeValueAsString(parameters) + "}");
+		} catch (JsonProcessingException e) {
+			UniJ.log("Local client \"" + getClientName() + "\" could not execute \"" + procedureName
+					+ "\", because the parameters are invalid");
+		}
+	}
+
+	/**
+	 * Execute a procedure of the server
+	 * @param resultType        Class the result is converted into, if it isn't one already
+	 * @param procedureName     Name of the server's procedure
+	 * @param parameters        Parameters for the procedure
+	 * @return                  Completes with the result or a RemoteProcedureException
+	 */
+
+	public <T> CompletableFuture<T> call(Class<T> resultType, String procedureName, Object... parameters) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+
+		if (copyMode) {
+			long callId = nextCallId.incrementAndGet();
+			try {
+				String message = "{\"" + procedureName + "\":" + mapper.writeValueAsString(parameters)
+						+ ",\"cid\":" + callId + "}";
+				pendingCalls.put(callId, new LocalCall<>(resultType, result));
+				endpoint.onMessage(message);
+			} catch (JsonProcessingException e) {
+				result.completeExceptionally(e);
+			}
+			return result;
+		}
+
+		UniJProcedure procedure = UniJEndpoint.getProcedure(procedureName);
+
+		if (procedure == null) {
+			result.completeExceptionally(new RemoteProcedureException("Remote procedure with clientName \""
+					+ procedureName + "\" does not exist"));
+			return result;
+		}
+
+		try {
+			Object[] bound = UniJEndpoint.bindParameters(procedure, parameters);
+			Object value = UniJEndpoint.dispatch(procedure, procedureName, getClientName(), 0, bound);
+
+			if (value == UniJProcedure.EXECUTION_FAILED) {
+				result.completeExceptionally(new RemoteProcedureException(UniJEndpoint.executionFailed(procedureName)));
+			} else {
+				result.complete(convert(value, resultType));
+			}
+		} catch (IllegalArgumentException e) {
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+
+	/**
+	 * Get the name of this client. It may change if the server renames it
+	 * @return      Name of the client
+	 */
+
+	public String getClientName() {
+		return endpoint.getClientName();
+	}
+
+	/**
+	 * Disconnect this client from the server, calls to the server that are still waiting fail
+	 */
+
+	@Override
+	public void close() {
+		UniJEndpoint.removeLocalClient(endpoint);
+		pendingCalls.forEach((callId, call) -> call.result.completeExceptionally(
+				new RemoteProcedureException("Local client \"" + getClientName() + "\" was closed")));
+		pendingCalls.clear();
+	}
+
+	/*** Server -> local client ******************************************************************/
+
+	/**
+	 * Member of the client pool that hands everything the server sends to this client
+	 */
+
+	private class LocalEndpoint extends UniJEndpoint {
+
+		@Override
+		protected boolean deliverDirectly(String procedureName, Object[] parameters) {
+			if (copyMode) {
+				return false;
+			}
+
+			UniJProcedure procedure = procedures.get(procedureName);
+			if (procedure == null) {
+				UniJ.log("Local client \"" + getClientName() + "\" doesn't know procedure with name \""
+						+ procedureName + "\"");
+			} else {
+				procedure.execute(UniJEndpoint.bindParameters(procedure, parameters));
+			}
+			return true;
+		}
+
+		@Override
+		protected void sendText(Priority priority, String procedureName, String message, SendHandler onSent) {
+			UniJCapture.record(UniJCapture.OUTBOUND, getSessionId(), message);
+
+			try {
+				receive(message);
+			} catch (IOException | IllegalArgumentException e) {
+				UniJ.log("Local client \"" + getClientName() + "\" could not handle message " + message + ": " + e);
+			}
+
+			if (onSent != null) {
+				onSent.onResult(new SendResult());
+			}
+		}
+
+		@Override
+		protected void sendBinary(Priority priority, String procedureName, ByteBuffer message, Runnable onSent) {
+			sendText(priority, procedureName, StandardCharsets.UTF_8.decode(message.duplicate()).toString(), null);
+			onSent.run();
+		}
+	}
+
+	/**
+	 * Handle a serialized message of the server the way the JavaScript client does
+	 * @param message       Expected pattern: {"pro":"name","par":[param1],"cid":1} or a reply with "rid"
+	 * @throws IOException
+	 */
+
+	private void receive(String message) throws IOException {
+		JsonNode json = mapper.readTree(message);
+
+		// Relayed by another client, only ever a plain procedure call
+		if (json.has("unijFrom")) {
+			receiveRelayed(json);
+			return;
+		}
+
+		// Reply to one of our own calls
+		if (json.has("rid")) {
+			LocalCall<?> call = pendingCalls.remove(json.get("rid").asLong());
+			if (call != null) {
+				call.settle(json);
+			}
+			return;
+		}
+
+		String procedureName = json.path("pro").asText();
+		UniJProcedure procedure = procedures.get(procedureName);
+		JsonNode callId = json.get("cid");
+
+		if (procedure == null) {
+			String error = "Local client \"" + getClientName() + "\" doesn't know procedure with name \""
+					+ procedureName + "\"";
+			if (callId != null) {
+				endpoint.onMessage("{\"unijError\":[" + callId.asLong() + "," + mapper.writeValueAsString(error) + "]}");
+			} else {
+				UniJ.log(error);
+			}
+			return;
+		}
+
+		Object result = procedure.execute(readParameters(procedure, json.path("par")));
+
+		if (callId == null) {
+			return;
+		}
+
+		if (result == UniJProcedure.EXECUTION_FAILED) {
+			String error = "Procedure \"" + procedureName + "\" failed on local client \"" + getClientName() + "\"";
+			endpoint.onMessage("{\"unijError\":[" + callId.asLong() + "," + mapper.writeValueAsString(error) + "]}");
+		} else {
+			endpoint.onMessage("{\"unijResult\":[" + callId.asLong() + "," + mapper.writeValueAsString(result) + "]}");
+		}
+	}
+
+	private void receiveRelayed(JsonNode json) throws IOException {
+		String procedureName = json.path("pro").asText();
+		UniJProcedure procedure = procedures.get(procedureName);
+
+		if (isControlProcedure(procedureName)) {
+			UniJ.log("Local client \"" + getClientName() + "\" refused relayed message for \"" + procedureName
+					+ "\" from \"" + json.get("unijFrom").asText() + "\"");
+		} else if (procedure == null) {
+			UniJ.log("Local client \"" + getClientName() + "\" doesn't know procedure with name \""
+					+ procedureName + "\"");
+		} else {
+			procedure.execute(readParameters(procedure, json.path("par")));
+		}
+	}
+
+	/**
+	 * @return      True for procedures only the server may execute on a client
+	 */
+
+	private static boolean isControlProcedure(String procedureName) {
+		return procedureName.startsWith("unij") || procedureName.equals("setClientName")
+				|| procedureName.equals("clientIsReadyNow");
+	}
+
+	private static Object[] readParameters(UniJProcedure procedure, JsonNode par) throws JsonProcessingException {
+		Object[] parameters = new Object[procedure.paramTypes.length];
+		for (int i = 0; i < parameters.length && i < par.size(); i++) {
+			parameters[i] = mapper.treeToValue(par.get(i), procedure.paramTypes[i]);
+		}
+		return parameters;
+	}
+
+	private static <T> T convert(Object value, Class<T> type) {
+		if (value == null || type.isInstance(value)) {
+			return type.cast(value);
+		}
+		return mapper.convertValue(value, type);
+	}
+
+	private static class LocalCall<T> {
+		final Class<T> resultType;
+		final CompletableFuture<T> result;
+
+		LocalCall(Class<T> resultType, CompletableFuture<T> result) {
+			this.resultType = resultType;
+			this.result = result;
+		}
+
+		void settle(JsonNode reply) {
+			if (reply.has("err")) {
+				result.completeExceptionally(new RemoteProcedureException(reply.get("err").asText()));
+				return;
+			}
+			JsonNode par = reply.path("par");
+			try {
+				result.complete(par.size() == 0 ? null : mapper.treeToValue(par.get(0), resultType));
+			} catch (JsonProcessingException e) {
+				result.completeExceptionally(e);
+			}
+		}
+	}
+}
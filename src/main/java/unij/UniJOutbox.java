@@ -0,0 +1,192 @@
+package unij;
+
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.function.BiConsumer;
+
+/**
+ * Outgoing frames of one client, queued in a lane per priority. Only a few frames are handed to the websocket
+ * at a time, the next one is picked by smooth weighted round robin over the lanes that have frames waiting.
+ * Chunked messages go back to the end of their lane after every chunk.
+ */
+
+class UniJOutbox {
+
+	// Frames handed to the websocket that didn't complete yet, enough to keep the connection busy
+	private static final int MAX_IN_FLIGHT = 4;
+
+	private static final Priority[] PRIORITIES = Priority.values();
+
+	private final BiConsumer<Frame, SendHandler> transmitter;
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private final ArrayDeque<Frame>[] lanes = new ArrayDeque[PRIORITIES.length];
+	private final int[] currentWeights = new int[PRIORITIES.length];
+	private int inFlight;
+	private boolean pumping;
+
+	/**
+	 * @param transmitter       Writes a text or binary frame to the websocket and calls the handler when done
+	 */
+
+	UniJOutbox(BiConsumer<Frame, SendHandler> transmitter) {
+		this.transmitter = transmitter;
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i] = new ArrayDeque<>();
+		}
+	}
+
+	void add(Priority priority, Frame frame) {
+		synchronized (this) {
+			lanes[priority.ordinal()].addLast(frame);
+		}
+		pump();
+	}
+
+	/**
+	 * @return      Number of messages waiting in all lanes
+	 */
+
+	synchronized int size() {
+		int size = 0;
+		for (ArrayDeque<Frame> lane : lanes) {
+			size += lane.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Hand frames to the websocket until enough are in flight. Only one thread pumps at a time, completions
+	 * that happen meanwhile are picked up by its loop
+	 */
+
+	private void pump() {
+		while (true) {
+			Frame transmitted;
+
+			synchronized (this) {
+				if (pumping || inFlight >= MAX_IN_FLIGHT) {
+					return;
+				}
+
+				int lane = nextLane();
+				if (lane < 0) {
+					return;
+				}
+
+				Frame frame = lanes[lane].pollFirst();
+				if (frame.chunked != null) {
+					String chunk = frame.chunked.nextChunk();
+					boolean last = !frame.chunked.hasNext();
+					transmitted = new Frame(frame.procedureName, chunk, null, null, last ? frame.onSent : null);
+					if (!last) {
+						lanes[lane].addLast(frame);
+					}
+				} else {
+					transmitted = frame;
+				}
+
+				inFlight++;
+				pumping = true;
+			}
+
+			try {
+				transmitter.accept(transmitted, result -> completed(transmitted, result));
+			} catch (RuntimeException e) {
+				// The frame never made it to the websocket, release its slot and tell the sender
+				completed(transmitted, new SendResult(e));
+			} finally {
+				synchronized (this) {
+					pumping = false;
+				}
+			}
+		}
+	}
+
+	private void completed(Frame frame, SendResult result) {
+		if (frame.onSent != null) {
+			frame.onSent.onResult(result);
+		}
+
+		synchronized (this) {
+			inFlight--;
+		}
+
+		if (result.isOK()) {
+			pump();
+		} else {
+			failAll(result);
+		}
+	}
+
+	/**
+	 * The connection is broken, tell everybody waiting for their frames
+	 */
+
+	private void failAll(SendResult result) {
+		ArrayDeque<Frame> dropped = new ArrayDeque<>();
+		synchronized (this) {
+			for (ArrayDeque<Frame> lane : lanes) {
+				dropped.addAll(lane);
+				lane.clear();
+			}
+		}
+		for (Frame frame : dropped) {
+			if (frame.onSent != null) {
+				frame.onSent.onResult(result);
+			}
+		}
+	}
+
+	/**
+	 * Smooth weighted round robin: every waiting lane earns its weight, the richest lane sends and pays
+	 * the weight of all waiting lanes
+	 * @return      Index of the lane to send from or -1 if all lanes are empty
+	 */
+
+	private int nextLane() {
+		int best = -1;
+		int totalWeight = 0;
+
+		for (int i = 0; i < lanes.length; i++) {
+			if (lanes[i].isEmpty()) {
+				currentWeights[i] = 0;
+				continue;
+			}
+			currentWeights[i] += PRIORITIES[i].weight;
+			totalWeight += PRIORITIES[i].weight;
+			if (best < 0 || currentWeights[i] > currentWeights[best]) {
+				best = i;
+			}
+		}
+
+		if (best >= 0) {
+			currentWeights[best] -= totalWeight;
+		}
+		return best;
+	}
+
+	/**
+	 * A text message, a binary message or a message that is sent in chunks
+	 */
+
+	static class Frame {
+
+		final String procedureName;
+		final String text;
+		final ByteBuffer binary;
+		final UniJChunks.Outgoing chunked;
+		final SendHandler onSent;
+
+		Frame(String procedureName, String text, ByteBuffer binary, UniJChunks.Outgoing chunked,
+		      SendHandler onSent) {
+			this.procedureName = procedureName;
+			this.text = text;
+			this.binary = binary;
+			this.chunked = chunked;
+			this.onSent = onSent;
+		}
+	}
+}
@@ -3,16 +3,28 @@ package unij;
 import java.lang.reflect.Method;
 
 class UniJProcedure {
+	// Returned if the procedure threw, compared by identity so no real result can be mistaken for it
+	static final Object EXECUTION_FAILED = new Object();
+	// What clients that didn't send a call id get instead of the result
+	static final String EXECUTION_FAILED_MESSAGE = "Could not execute";
+
 	final Object executor;
 	final Method callback;
 	final Class[] paramTypes;
 	final boolean willReturnSomething;
+	// Null if results aren't cached
+	final UniJResultCache cache;
 
 	protected UniJProcedure(Object executor, Method callback) {
 		this.executor = executor;
 		this.callback = callback;
 		this.paramTypes = callback.getParameterTypes();
 		this.willReturnSomething = callback.getReturnType() != Void.TYPE;
+
+		Procedure annotation = callback.getAnnotation(Procedure.class);
+		this.cache = (annotation != null && annotation.cacheTtlMs() > 0 && willReturnSomething)
+				? new UniJResultCache(annotation.cacheTtlMs(), annotation.cacheSize(), annotation.cacheMaxBytes())
+				: null;
 	}
 
 	protected Object execute(Object... parameters) {
@@ -21,6 +33,6 @@ class UniJProcedure {
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
-		return "Could not execute";
+		return EXECUTION_FAILED;
 	}
 }
@@ -0,0 +1,86 @@
+package unij;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket implemented as generic cell rate algorithm: the whole state is the theoretical arrival time
+ * of the next message, updated with a single compare and set, so checking a message takes no lock.
+ */
+
+class UniJRateLimiter {
+
+	static final long REJECTED = -1;
+
+	// Nanoseconds it takes to refill one token
+	private final long interval;
+	// How far ahead of schedule a client may get, equals a full bucket
+	private final long tolerance;
+
+	private final AtomicLong theoreticalArrival = new AtomicLong(System.nanoTime());
+
+	/**
+	 * @param callsPerSecond        Sustained rate
+	 * @param burst                 Calls allowed at once after a quiet period
+	 */
+
+	UniJRateLimiter(double callsPerSecond, int burst) {
+		this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / callsPerSecond);
+		this.tolerance = interval * Math.max(1, burst);
+	}
+
+	/**
+	 * @return      Fresh, full bucket with the same rate and burst
+	 */
+
+	UniJRateLimiter newBucket() {
+		return new UniJRateLimiter(this);
+	}
+
+	private UniJRateLimiter(UniJRateLimiter prototype) {
+		this.interval = prototype.interval;
+		this.tolerance = prototype.tolerance;
+		this.theoreticalArrival.set(System.nanoTime() - tolerance);
+	}
+
+	/**
+	 * Take a token, possibly one that is only available in the future
+	 * @param maxWaitNanos      How long the caller is willing to wait for the token
+	 * @return                  Nanoseconds until the token is available (0 for right now) or REJECTED
+	 */
+
+	long acquire(long maxWaitNanos) {
+		return acquire(maxWaitNanos, System.nanoTime());
+	}
+
+	/**
+	 * @param maxWaitNanos      How long the caller is willing to wait for the token
+	 * @param now               Current System.nanoTime()
+	 * @return                  Nanoseconds until the token is available (0 for right now) or REJECTED
+	 */
+
+	long acquire(long maxWaitNanos, long now) {
+		while (true) {
+			long arrival = theoreticalArrival.get();
+			long nextArrival = Math.max(arrival, now - tolerance) + interval;
+			long wait = Math.max(0, nextArrival - now);
+
+			if (wait > maxWaitNanos) {
+				return REJECTED;
+			}
+			if (theoreticalArrival.compareAndSet(arrival, nextArrival)) {
+				return wait;
+			}
+		}
+	}
+
+	/**
+	 * Check the next token without taking it
+	 * @param now       Current System.nanoTime()
+	 * @return          Nanoseconds until the next token is available, 0 for right now
+	 */
+
+	long peek(long now) {
+		return Math.max(0, Math.max(theoreticalArrival.get(), now - tolerance) + interval - now);
+	}
+}
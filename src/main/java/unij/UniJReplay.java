@@ -0,0 +1,309 @@
+package unij;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.websocket.*;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * Plays the inbound frames of a capture file (see UniJ.startCapture) against a running UniJ server,
+ * one WebSocket connection per captured session. Renames are replayed as they happened, because they are
+ * inbound frames of the same session.
+ *
+ * Usage: UniJReplay capture-file ws://host:port [speed] [--report file] [--baseline file]
+ *   speed       "1" for the original pace, "10" for ten times faster or "max" to send as fast as possible
+ *   --report    Write the results as properties so a later build can be compared against them
+ *   --baseline  Compare the results with a report of an earlier run
+ */
+
+public class UniJReplay {
+
+	private static final long REPLY_TIMEOUT_SECONDS = 10;
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 2) {
+			System.out.println("Usage: UniJReplay capture-file ws://host:port [speed|max] [--report file]"
+					+ " [--baseline file]");
+			return;
+		}
+
+		String capturePath = args[0];
+		String address = args[1];
+		double speed = 1;
+		String reportPath = null;
+		String baselinePath = null;
+
+		for (int i = 2; i < args.length; i++) {
+			if (args[i].equals("--report")) {
+				reportPath = args[++i];
+			} else if (args[i].equals("--baseline")) {
+				baselinePath = args[++i];
+			} else {
+				// 0 means as fast as possible
+				speed = args[i].equals("max") ? 0 : Double.parseDouble(args[i].replace("x", ""));
+			}
+		}
+
+		List<UniJCapture.Frame> frames = UniJCapture.read(capturePath).stream()
+				.filter(frame -> frame.direction == UniJCapture.INBOUND)
+				.collect(Collectors.toList());
+
+		if (frames.isEmpty()) {
+			System.out.println("Capture \"" + capturePath + "\" contains no inbound frames");
+			return;
+		}
+
+		// One connection per captured session
+		WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+		Map<Long, Connection> connections = new LinkedHashMap<>();
+
+		for (UniJCapture.Frame frame : frames) {
+			if (!connections.containsKey(frame.session)) {
+				Connection connection = new Connection();
+				container.connectToServer(connection, ClientEndpointConfig.Builder.create().build(),
+						URI.create(address + UniJ.getUniJWebSocketPath()));
+				connection.awaitName();
+				connections.put(frame.session, connection);
+			}
+		}
+
+		System.out.println("Replaying " + frames.size() + " frames of " + connections.size() + " clients at "
+				+ (speed == 0 ? "maximum speed" : speed + "x"));
+
+		long firstFrameTime = frames.get(0).time;
+		long start = System.nanoTime();
+
+		for (UniJCapture.Frame frame : frames) {
+			if (speed > 0) {
+				long due = start + (long) ((frame.time - firstFrameTime) / speed);
+				long wait;
+				while ((wait = due - System.nanoTime()) > 0) {
+					LockSupport.parkNanos(wait);
+				}
+			}
+			connections.get(frame.session).send(frame.message);
+		}
+
+		long sendDuration = System.nanoTime() - start;
+
+		for (Connection connection : connections.values()) {
+			connection.awaitReplies(TimeUnit.SECONDS.toNanos(REPLY_TIMEOUT_SECONDS));
+			connection.session.close();
+		}
+
+		Properties report = createReport(frames.size(), sendDuration, connections.values());
+		report.list(System.out);
+
+		if (reportPath != null) {
+			try (OutputStream out = new FileOutputStream(reportPath)) {
+				report.store(out, "UniJ replay of " + capturePath);
+			}
+		}
+
+		if (baselinePath != null) {
+			compare(report, baselinePath);
+		}
+	}
+
+	private static Properties createReport(int frames, long sendDuration, Iterable<Connection> connections) {
+		List<Long> latencies = new ArrayList<>();
+		long replies = 0;
+		long unanswered = 0;
+
+		for (Connection connection : connections) {
+			latencies.addAll(connection.latencies);
+			replies += connection.received.get();
+			unanswered += connection.pendingCalls.size();
+		}
+		Collections.sort(latencies);
+
+		double seconds = sendDuration / 1e9;
+
+		Properties report = new Properties();
+		report.setProperty("frames", "" + frames);
+		report.setProperty("seconds", String.format("%.3f", seconds));
+		report.setProperty("framesPerSecond", String.format("%.1f", frames / seconds));
+		report.setProperty("receivedFrames", "" + replies);
+		report.setProperty("unansweredCalls", "" + unanswered);
+		report.setProperty("latencyP50Micros", "" + percentile(latencies, 0.5) / 1000);
+		report.setProperty("latencyP99Micros", "" + percentile(latencies, 0.99) / 1000);
+		report.setProperty("latencyMaxMicros", "" + percentile(latencies, 1) / 1000);
+
+		return report;
+	}
+
+	private static long percentile(List<Long> sortedValues, double percentile) {
+		if (sortedValues.isEmpty()) {
+			return 0;
+		}
+		int index = (int) Math.ceil(percentile * sortedValues.size()) - 1;
+		return sortedValues.get(Math.max(0, index));
+	}
+
+	/**
+	 * Print the change of every value compared to an earlier report
+	 * @param report            Results of this run
+	 * @param baselinePath      Report written by an earlier run
+	 * @throws IOException
+	 */
+
+	private static void compare(Properties report, String baselinePath) throws IOException {
+		Properties baseline = new Properties();
+		try (InputStream in = new FileInputStream(baselinePath)) {
+			baseline.load(in);
+		}
+
+		System.out.println("-- compared to " + baselinePath + " --");
+		for (String key : report.stringPropertyNames()) {
+			if (baseline.containsKey(key)) {
+				double before = Double.parseDouble(baseline.getProperty(key));
+				double after = Double.parseDouble(report.getProperty(key));
+				String change = before == 0 ? "n/a" : String.format("%+.1f%%", (after - before) / before * 100);
+				System.out.println(key + ": " + baseline.getProperty(key) + " -> " + report.getProperty(key)
+						+ " (" + change + ")");
+			}
+		}
+	}
+
+	/**
+	 * Connection of one captured client
+	 */
+
+	private static class Connection extends Endpoint implements MessageHandler.Whole<String> {
+
+		private static final String SET_NAME_PREFIX = "{\"pro\":\"setClientName\",\"par\":[\"";
+		private static final String RENAME_PREFIX = "{\"setClientName\":[\"";
+		private static final String CHUNK_PREFIX = "{\"pro\":\"" + UniJChunks.CHUNK_PROCEDURE + "\"";
+		private static final ObjectMapper mapper = new ObjectMapper();
+
+		private final CountDownLatch named = new CountDownLatch(1);
+		private final Map<Long, Long> pendingCalls = new ConcurrentHashMap<>();
+		private final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+		private final AtomicLong received = new AtomicLong();
+		// Replies longer than the chunk size arrive in chunks
+		private final UniJChunks.Incoming incomingChunks = new UniJChunks.Incoming();
+
+		private Session session;
+		private volatile String name;
+
+		@Override
+		public void onOpen(Session session, EndpointConfig config) {
+			this.session = session;
+			session.addMessageHandler(this);
+
+			// Servers with pooled encoding send UTF-8 encoded binary frames
+			session.addMessageHandler(new MessageHandler.Whole<ByteBuffer>() {
+				@Override
+				public void onMessage(ByteBuffer message) {
+					Connection.this.onMessage(StandardCharsets.UTF_8.decode(message).toString());
+				}
+			});
+		}
+
+		@Override
+		public void onMessage(String message) {
+			long now = System.nanoTime();
+			received.incrementAndGet();
+
+			if (message.startsWith(CHUNK_PREFIX)) {
+				message = reassemble(message);
+				if (message == null) {
+					return;
+				}
+			}
+
+			long replyId = readNumber(message, ",\"rid\":");
+			if (replyId >= 0) {
+				Long sent = pendingCalls.remove(replyId);
+				if (sent != null) {
+					latencies.add(now - sent);
+				}
+			} else if (message.startsWith(SET_NAME_PREFIX)) {
+				// The server names every new client
+				name = message.substring(SET_NAME_PREFIX.length(), message.indexOf('"', SET_NAME_PREFIX.length()));
+				named.countDown();
+			}
+		}
+
+		/**
+		 * @param chunk     Expected pattern: {"pro":"unijChunk","par":[id,index,last,"slice"]}
+		 * @return          The whole message after its last chunk, otherwise null
+		 */
+
+		private String reassemble(String chunk) {
+			try {
+				JsonNode par = mapper.readTree(chunk).path("par");
+				return incomingChunks.add(par.path(0).asLong(), par.path(1).asInt(), par.path(2).asBoolean(),
+						par.path(3).asText(), Long.MAX_VALUE);
+			} catch (IOException | IllegalStateException e) {
+				System.out.println("Dropped chunk of client \"" + name + "\": " + e.getMessage());
+				return null;
+			}
+		}
+
+		private void awaitName() throws InterruptedException {
+			if (!named.await(REPLY_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				throw new IllegalStateException("UniJ: Server did not name the replay client");
+			}
+		}
+
+		private void awaitReplies(long timeoutNanos) {
+			long deadline = System.nanoTime() + timeoutNanos;
+			while (!pendingCalls.isEmpty() && System.nanoTime() < deadline) {
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+			}
+		}
+
+		private void send(String message) throws IOException {
+			// The captured client had a different name than this connection
+			if (message.startsWith(RENAME_PREFIX)) {
+				int end = message.indexOf('"', RENAME_PREFIX.length());
+				message = RENAME_PREFIX + name + message.substring(end);
+			}
+
+			long callId = readNumber(message, ",\"cid\":");
+			if (callId >= 0) {
+				pendingCalls.put(callId, System.nanoTime());
+			}
+			session.getBasicRemote().sendText(message);
+		}
+
+		/**
+		 * Read a non negative number behind a marker without parsing the message
+		 * @return      The number or -1 if the marker isn't found
+		 */
+
+		private static long readNumber(String message, String marker) {
+			int index = message.lastIndexOf(marker);
+			if (index < 0) {
+				return -1;
+			}
+			long number = 0;
+			for (int i = index + marker.length(); i < message.length() && Character.isDigit(message.charAt(i)); i++) {
+				number = number * 10 + (message.charAt(i) - '0');
+			}
+			return number;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package unij;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UTF-8 encoded reply frames of one procedure, up to the call id, keyed by the raw JSON of the parameters.
+ * Entries expire after a fixed time and the least recently used ones are evicted when there are too many or
+ * they take too much memory.
+ */
+
+class UniJResultCache {
+
+	private final long ttlNanos;
+	private final int maxEntries;
+	private final long maxBytes;
+
+	// Access ordered, so the eldest entry is the least recently used
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	UniJResultCache(long ttlMillis, int maxEntries, long maxBytes) {
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @param parameters        Raw JSON parameter array as sent by the client
+	 * @return                  Encoded frame without call id and closing brace or null if not cached or expired
+	 */
+
+	byte[] get(String parameters) {
+		synchronized (entries) {
+			Entry entry = entries.get(parameters);
+
+			if (entry != null && entry.expires - System.nanoTime() > 0) {
+				hits.incrementAndGet();
+				return entry.result;
+			}
+			if (entry != null) {
+				remove(parameters);
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	void put(String parameters, byte[] result) {
+		synchronized (entries) {
+			Entry previous = entries.put(parameters, new Entry(result, System.nanoTime() + ttlNanos));
+			if (previous != null) {
+				bytes -= sizeOf(parameters, previous.result);
+			}
+			bytes += sizeOf(parameters, result);
+
+			Iterator<Map.Entry<String, Entry>> leastRecentlyUsed = entries.entrySet().iterator();
+			while ((entries.size() > maxEntries || bytes > maxBytes) && leastRecentlyUsed.hasNext()) {
+				Map.Entry<String, Entry> evicted = leastRecentlyUsed.next();
+				bytes -= sizeOf(evicted.getKey(), evicted.getValue().result);
+				leastRecentlyUsed.remove();
+			}
+		}
+	}
+
+	void invalidate() {
+		synchronized (entries) {
+			entries.clear();
+			bytes = 0;
+		}
+	}
+
+	CacheStatistics getStatistics() {
+		synchronized (entries) {
+			return new CacheStatistics(hits.get(), misses.get(), entries.size(), bytes);
+		}
+	}
+
+	private void remove(String parameters) {
+		Entry entry = entries.remove(parameters);
+		if (entry != null) {
+			bytes -= sizeOf(parameters, entry.result);
+		}
+	}
+
+	// Two bytes per char of the key plus rough object overhead
+	private static long sizeOf(String parameters, byte[] result) {
+		return 2L * parameters.length() + result.length + 96;
+	}
+
+	private static class Entry {
+		final byte[] result;
+		final long expires;
+
+		Entry(byte[] result, long expires) {
+			this.result = result;
+			this.expires = expires;
+		}
+	}
+}
@@ -23,6 +23,7 @@ class UniJServer implements Runnable {
 	private final Map<String, Class<? extends Endpoint>> webSockets;
 	private final ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
 	private final String hostName;
+	private final int maxMessageSize;
 
 	/**
 	 * Constructor for UniJ Server
@@ -36,6 +37,7 @@ class UniJServer implements Runnable {
 		this.server = new Server();
 		this.webSockets = webSockets;
 		this.hostName = serverSettings.get("hostName");
+		this.maxMessageSize = Integer.parseInt(serverSettings.get("maxMessageSize"));
 
 		int securePort = Integer.parseInt(serverSettings.get("securePort"));
 		boolean sslEnabled = System.getProperty("unij.keystore.path") != null;
@@ -195,6 +197,10 @@ class UniJServer implements Runnable {
 			// Add javax.websocket support
 			ServerContainer container = WebSocketServerContainerInitializer.configureContext(context);
 
+			// Larger messages are chunked by the UniJ clients, other websockets get the same limit
+			container.setDefaultMaxTextMessageBufferSize(maxMessageSize);
+			container.setDefaultMaxBinaryMessageBufferSize(maxMessageSize);
+
 			webSockets.forEach((address, webSocket) -> {
 				try {
 					container.addEndpoint(
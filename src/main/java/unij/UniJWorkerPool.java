@@ -0,0 +1,178 @@
+package unij;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Named group of clients that execute jobs. Each job goes to the worker with the fewest unfinished jobs
+ * and is retried on another worker if it fails or the worker disconnects.
+ */
+
+class UniJWorkerPool {
+
+	private static final ConcurrentHashMap<String, UniJWorkerPool> pools = new ConcurrentHashMap<>();
+	private static volatile int maxAttempts = 3;
+
+	private final String name;
+
+	// Worker name -> number of jobs it is currently working on
+	private final ConcurrentHashMap<String, AtomicInteger> workers = new ConcurrentHashMap<>();
+
+	private UniJWorkerPool(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Add a client to a pool, the pool is created if necessary
+	 * @param poolName          Name of the pool
+	 * @param clientName        Name of the client
+	 */
+
+	static void join(String poolName, String clientName) {
+		pools.computeIfAbsent(poolName, UniJWorkerPool::new).workers.putIfAbsent(clientName, new AtomicInteger());
+		UniJ.log("Client \"" + clientName + "\" joined worker pool \"" + poolName + "\"");
+	}
+
+	static void leave(String poolName, String clientName) {
+		UniJWorkerPool pool = pools.get(poolName);
+		if (pool == null || pool.workers.remove(clientName) == null) {
+			UniJ.log("Client \"" + clientName + "\" tried to leave worker pool \"" + poolName
+					+ "\", but it wasn't part of it");
+		}
+	}
+
+	/**
+	 * Remove a client from all pools, i.e. because it disconnected
+	 * @param clientName        Name of the client
+	 */
+
+	static void leaveAll(String clientName) {
+		pools.forEachValue(Long.MAX_VALUE, pool -> pool.workers.remove(clientName));
+	}
+
+	/**
+	 * Keep pool memberships when a client changes its name
+	 * @param oldName       Previous name of the client
+	 * @param newName       New name of the client
+	 */
+
+	static void rename(String oldName, String newName) {
+		pools.forEachValue(Long.MAX_VALUE, pool -> {
+			AtomicInteger jobs = pool.workers.remove(oldName);
+			if (jobs != null) {
+				pool.workers.put(newName, jobs);
+			}
+		});
+	}
+
+	static Set<String> getWorkerNames(String poolName) {
+		UniJWorkerPool pool = pools.get(poolName);
+		return pool == null ? new HashSet<>() : new HashSet<>(pool.workers.keySet());
+	}
+
+	/**
+	 * Do something with every worker of a pool
+	 * @param poolName      Name of the pool
+	 * @param action        Gets the name of each worker
+	 * @return              False if the pool doesn't exist
+	 */
+
+	static boolean forEachWorker(String poolName, Consumer<String> action) {
+		UniJWorkerPool pool = pools.get(poolName);
+		if (pool == null) {
+			return false;
+		}
+		pool.workers.forEachKey(Long.MAX_VALUE, action);
+		return true;
+	}
+
+	static void setMaxAttempts(int attempts) {
+		maxAttempts = attempts;
+	}
+
+	/**
+	 * Execute a procedure on the least busy worker of a pool
+	 * @param poolName          Name of the pool
+	 * @param procedureName     Name of the procedure the workers offer
+	 * @param parameters        Parameters for the procedure
+	 * @return                  Completes with the worker's result or a RemoteProcedureException
+	 */
+
+	static CompletableFuture<JsonNode> submit(String poolName, String procedureName, Object... parameters) {
+		CompletableFuture<JsonNode> result = new CompletableFuture<>();
+		UniJWorkerPool pool = pools.get(poolName);
+
+		if (pool == null) {
+			result.completeExceptionally(new RemoteProcedureException("Worker pool \"" + poolName
+					+ "\" does not exist"));
+		} else {
+			pool.attempt(result, procedureName, parameters, new HashSet<>(), 1);
+		}
+		return result;
+	}
+
+	private void attempt(CompletableFuture<JsonNode> result, String procedureName, Object[] parameters,
+	                     Set<String> failedWorkers, int attempt) {
+
+		String worker = pickWorker(failedWorkers);
+
+		if (worker == null) {
+			result.completeExceptionally(new RemoteProcedureException("No worker in pool \"" + name
+					+ "\" could execute \"" + procedureName + "\""));
+			return;
+		}
+
+		AtomicInteger jobs = workers.get(worker);
+		if (jobs != null) {
+			jobs.incrementAndGet();
+		}
+
+		UniJEndpoint.call(worker, procedureName, parameters).whenComplete((value, error) -> {
+			if (jobs != null) {
+				jobs.decrementAndGet();
+			}
+
+			if (error == null) {
+				result.complete(value);
+			} else if (attempt < maxAttempts) {
+				UniJ.log("Worker \"" + worker + "\" failed executing \"" + procedureName + "\", retrying: "
+						+ error.getMessage());
+				failedWorkers.add(worker);
+				attempt(result, procedureName, parameters, failedWorkers, attempt + 1);
+			} else {
+				result.completeExceptionally(error);
+			}
+		});
+	}
+
+	/**
+	 * Find the worker with the fewest unfinished jobs, workers that failed this job before come last
+	 * @param failedWorkers     Workers that already failed this job
+	 * @return                  Name of the worker or null if the pool is empty
+	 */
+
+	private String pickWorker(Set<String> failedWorkers) {
+		String best = null;
+		int bestJobs = Integer.MAX_VALUE;
+		boolean bestFailed = true;
+
+		for (Map.Entry<String, AtomicInteger> worker : workers.entrySet()) {
+			boolean failed = failedWorkers.contains(worker.getKey());
+			int jobs = worker.getValue().get();
+
+			if (best == null || (bestFailed && !failed) || (bestFailed == failed && jobs < bestJobs)) {
+				best = worker.getKey();
+				bestJobs = jobs;
+				bestFailed = failed;
+			}
+		}
+		return best;
+	}
+}
@@ -7,6 +7,56 @@ function UniJClient(serverAddress) {
     var websocket;
     var localProcedures = {};
 
+    // Tunable with configure()
+    var settings = {
+        // Stop writing to the socket while more than this many bytes are buffered
+        highWaterMark: 1024 * 1024,
+        // Milliseconds between checks whether the socket has drained
+        drainInterval: 10,
+        // How queued messages are flushed: "none", "microtask" or "animationFrame"
+        batching: "none",
+        // Milliseconds until a pending execute() is rejected, 0 waits forever
+        callTimeout: 0,
+        // Messages longer than this many characters are sent in chunks, keep it in line with the server
+        chunkSize: 8192,
+        // Characters of partially received chunked messages that may be buffered
+        maxReassemblySize: 16 * 1024 * 1024
+    };
+
+    // Outgoing messages waiting for the socket, consumed from queueHead
+    var sendQueue = [];
+    var queueHead = 0;
+    var flushScheduled = false;
+    var drainTimer;
+
+    // Chunked messages take turns with the send queue, see flush()
+    var chunkedMessages = [];
+    var nextChunkedMessageId = 0;
+    var preferChunk = false;
+
+    // Partially received chunked messages, keyed by message id
+    var incomingChunks = {};
+    var incomingChunkSize = 0;
+
+    // Calls waiting for the server's reply, keyed by call id
+    var pendingCalls = {};
+    var nextCallId = 1;
+
+    var textDecoder = (typeof TextDecoder === "function") ? new TextDecoder("utf-8") : undefined;
+
+    /**
+     * Change settings of this client, unknown settings are ignored
+     * @param options   i.e. {highWaterMark: 65536, batching: "microtask", callTimeout: 5000}
+     */
+
+    this.configure = function (options) {
+        for (var key in options) {
+            if (options.hasOwnProperty(key) && settings.hasOwnProperty(key)) {
+                settings[key] = options[key];
+            }
+        }
+    };
+
     this.addProcedure = function(name, procedure) {
         if (localProcedures[name] !== undefined) {
             log("Local procedure with name \"" + name + "\" has been overwritten");
@@ -31,7 +81,7 @@ function UniJClient(serverAddress) {
         if (websocket === undefined) {
             log("You can only set the client's name if you are connected to the server");
         } else {
-            this.execute("setClientName", clientName, newName);
+            enqueue(buildMessage("setClientName", [clientName, newName]));
         }
     };
 
@@ -68,35 +118,400 @@ function UniJClient(serverAddress) {
         });
 
         websocket = new WebSocket(buildWebSocketAddress(serverAddress));
+        // Server may send UTF-8 encoded messages as binary frames
+        websocket.binaryType = "arraybuffer";
 
-        websocket.onmessage = function(event) {
-
-            var message = JSON.parse(event.data);
-            var procedure = localProcedures[message.pro];
+        // Messages executed before the connection was open are still queued
+        websocket.onopen = function() {
+            flush();
+        };
 
-            if (procedure !== undefined) {
-                procedure.apply(this, message.par);
-            } else {
-                logToServer("I don't know procedure with name \"" + message.pro + "\"");
-            }
+        websocket.onmessage = function(event) {
+            handleMessage(JSON.parse((typeof event.data === "string") ? event.data : decodeUTF8(event.data)));
         };
 
         websocket.onclose = function(event) {
             var reason = (event.reason === "") ? "unexpected closing" : event.reason;
             log("Lost connection from server because of " + reason);
+            rejectAllCalls("Lost connection from server because of " + reason);
         };
     };
 
+    /**
+     * Execute a procedure on the server. Messages are queued and only written while the socket
+     * buffers less than settings.highWaterMark bytes. Use send() if the result doesn't matter
+     * @param remoteProcedureName   Name of the server's procedure
+     * @param parameters            Parameters for the procedure
+     * @returns {Promise}           Resolves with the procedure's return value
+     */
+
     this.execute = function (remoteProcedureName, parameters) {
-        if (websocket !== undefined) {
-            // Minified JSON to reduce parsing steps
-            websocket.send("{\"" + remoteProcedureName + "\":" +
-                JSON.stringify(Array.prototype.slice.call(arguments, 1)) + "}");
-        } else {
+        if (websocket === undefined) {
             log("You cannot execute remote procedures without connecting to the UniJ server first");
+            return (typeof Promise === "function") ? Promise.reject(new Error("Not connected")) : undefined;
+        }
+
+        var params = Array.prototype.slice.call(arguments, 1);
+
+        // Without promises calls stay fire and forget
+        if (typeof Promise !== "function") {
+            enqueue(buildMessage(remoteProcedureName, params));
+            return undefined;
+        }
+
+        return new Promise(function (resolve, reject) {
+            var callId = nextCallId++;
+            var call = {resolve: resolve, reject: reject, procedure: remoteProcedureName};
+
+            if (settings.callTimeout > 0) {
+                call.timer = setTimeout(function () {
+                    delete pendingCalls[callId];
+                    reject(new Error("Call of \"" + remoteProcedureName + "\" timed out"));
+                }, settings.callTimeout);
+            }
+
+            pendingCalls[callId] = call;
+            enqueue(buildMessage(remoteProcedureName, params, callId));
+        });
+    };
+
+    /**
+     * Execute a procedure on the server without waiting for its result. No call id is attached, so the server
+     * doesn't answer procedures without return value
+     * @param remoteProcedureName   Name of the server's procedure
+     * @param parameters            Parameters for the procedure
+     */
+
+    this.send = function (remoteProcedureName, parameters) {
+        if (websocket === undefined) {
+            log("You cannot execute remote procedures without connecting to the UniJ server first");
+        } else {
+            enqueue(buildMessage(remoteProcedureName, Array.prototype.slice.call(arguments, 1)));
+        }
+    };
+
+    /**
+     * Execute a procedure on another client. The server forwards the message without looking at the parameters
+     * @param target                Name of a client, a worker pool or "*" for all other clients
+     * @param remoteProcedureName   Name of the other client's procedure
+     * @param parameters            Parameters for the procedure
+     */
+
+    this.relay = function (target, remoteProcedureName, parameters) {
+        if (websocket === undefined) {
+            log("You cannot relay messages without connecting to the UniJ server first");
+        } else {
+            enqueue("{\"unijRelay\":" + JSON.stringify(target) + ",\"pro\":" + JSON.stringify(remoteProcedureName) +
+                ",\"par\":" + JSON.stringify(Array.prototype.slice.call(arguments, 2)) + "}");
         }
     };
 
+    /**
+     * Offer this client's procedures as a worker of a pool, the server's UniJ.submit() then hands out jobs
+     * @param poolName      Name of the worker pool
+     */
+
+    this.joinPool = function (poolName) {
+        if (websocket === undefined) {
+            log("You can only join a worker pool if you are connected to the server");
+        } else {
+            enqueue(buildMessage("unijJoinPool", [poolName]));
+        }
+    };
+
+    this.leavePool = function (poolName) {
+        if (websocket !== undefined) {
+            enqueue(buildMessage("unijLeavePool", [poolName]));
+        }
+    };
+
+    /**
+     * Get the number of messages waiting to be written to the socket
+     * @returns {number}
+     */
+
+    this.getQueuedMessages = function () {
+        return sendQueue.length - queueHead + chunkedMessages.length;
+    };
+
+    /**
+     * Execute a message of the server
+     * @param message   Expected pattern: {"pro":"name","par":[param1]}, optionally with "cid" or "rid"
+     */
+
+    function handleMessage(message) {
+
+        // Relayed by another client, only ever a plain procedure call
+        if (message.unijFrom !== undefined) {
+            receiveRelayed(message);
+            return;
+        }
+
+        if (message.pro === "unijChunk") {
+            receiveChunk(message.par[0], message.par[1], message.par[2], message.par[3]);
+            return;
+        }
+
+        // Reply to one of our own calls
+        if (message.rid !== undefined) {
+            settleCall(message);
+            return;
+        }
+
+        var procedure = localProcedures[message.pro];
+
+        if (message.cid !== undefined) {
+            answerCall(procedure, message);
+        } else if (procedure !== undefined) {
+            procedure.apply(self, message.par);
+        } else {
+            logToServer("I don't know procedure with name \"" + message.pro + "\"");
+        }
+    }
+
+    /**
+     * Execute a message another client relayed. Call and reply ids are ignored and procedures only the
+     * server may execute are refused, the sender controls everything but the "unijFrom" mark
+     * @param message   Expected pattern: {"unijFrom":"sender","pro":"name","par":[param1]}
+     */
+
+    function receiveRelayed(message) {
+        var name = message.pro;
+
+        if (typeof name !== "string" || name.indexOf("unij") === 0 || name === "setClientName" ||
+            name === "clientIsReadyNow") {
+            log("Refused relayed message for \"" + name + "\" from \"" + message.unijFrom + "\"");
+        } else if (localProcedures.hasOwnProperty(name)) {
+            localProcedures[name].apply(self, Array.isArray(message.par) ? message.par : []);
+        } else {
+            logToServer("I don't know procedure with name \"" + name + "\"");
+        }
+    }
+
+    /**
+     * Append a chunk to its message and handle the message once the last chunk arrived. Chunks of one
+     * message arrive in order
+     * @param id        Id of the chunked message
+     * @param index     Position of the chunk, starting at 0
+     * @param last      True for the last chunk
+     * @param slice     Part of the message
+     */
+
+    function receiveChunk(id, index, last, slice) {
+        var partial = incomingChunks[id];
+
+        if (partial === undefined && index === 0) {
+            partial = incomingChunks[id] = {slices: [], size: 0};
+        }
+
+        if (partial === undefined || partial.slices.length !== index) {
+            dropChunks(id, "chunk " + index + " is out of order");
+            return;
+        }
+
+        partial.slices.push(slice);
+        partial.size += slice.length;
+        incomingChunkSize += slice.length;
+
+        if (incomingChunkSize > settings.maxReassemblySize) {
+            dropChunks(id, "it exceeds the limit of " + settings.maxReassemblySize + " buffered characters");
+        } else if (last) {
+            delete incomingChunks[id];
+            incomingChunkSize -= partial.size;
+            handleMessage(JSON.parse(partial.slices.join("")));
+        }
+    }
+
+    function dropChunks(id, reason) {
+        if (incomingChunks[id] !== undefined) {
+            incomingChunkSize -= incomingChunks[id].size;
+            delete incomingChunks[id];
+        }
+        logToServer("Dropped chunked message " + id + ", because " + reason);
+    }
+
+    function buildMessage(remoteProcedureName, params, callId) {
+        // Minified JSON to reduce parsing steps
+        return "{\"" + remoteProcedureName + "\":" + JSON.stringify(params) +
+            ((callId === undefined) ? "}" : ",\"cid\":" + callId + "}");
+    }
+
+    function decodeUTF8(data) {
+        if (textDecoder !== undefined) {
+            return textDecoder.decode(new Uint8Array(data));
+        }
+        // Node.js without TextDecoder
+        return Buffer.from(data).toString("utf8");
+    }
+
+    /******************************* Sending *******************************/
+
+    function enqueue(message) {
+        if (message.length > settings.chunkSize) {
+            chunkedMessages.push({id: nextChunkedMessageId++, message: message, position: 0, index: 0});
+        } else {
+            sendQueue.push(message);
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Cut the next chunk off a chunked message, never between the two halves of a surrogate pair
+     * @param chunked   Entry of chunkedMessages
+     * @returns {string}    Expected pattern: {"unijChunk":[id,index,last,"slice"]}
+     */
+
+    function nextChunk(chunked) {
+        var message = chunked.message;
+        var end = Math.min(chunked.position + Math.max(2, settings.chunkSize), message.length);
+        var code = message.charCodeAt(end - 1);
+
+        if (end < message.length && code >= 0xD800 && code <= 0xDBFF) {
+            end--;
+        }
+
+        var slice = message.substring(chunked.position, end);
+        chunked.position = end;
+
+        return buildMessage("unijChunk", [chunked.id, chunked.index++, end === message.length, slice]);
+    }
+
+    /**
+     * Flush right away or collect all messages of this microtask/frame first
+     */
+
+    function scheduleFlush() {
+        if (flushScheduled) {
+            return;
+        }
+
+        if (settings.batching === "animationFrame" && typeof requestAnimationFrame === "function") {
+            flushScheduled = true;
+            requestAnimationFrame(flush);
+        } else if (settings.batching === "microtask" && typeof Promise === "function") {
+            flushScheduled = true;
+            Promise.resolve().then(flush);
+        } else {
+            flush();
+        }
+    }
+
+    /**
+     * Write queued messages until the socket's buffer reaches the high-water mark. Queued messages and
+     * chunks of chunked messages alternate, so a large message doesn't hold back small ones
+     */
+
+    function flush() {
+        flushScheduled = false;
+
+        // 1 = OPEN, onopen flushes again
+        if (websocket.readyState !== 1) {
+            return;
+        }
+
+        while (queueHead < sendQueue.length || chunkedMessages.length > 0) {
+            if (websocket.bufferedAmount > settings.highWaterMark) {
+                // Browsers have no drain event, so check again shortly
+                if (drainTimer === undefined) {
+                    drainTimer = setTimeout(function () {
+                        drainTimer = undefined;
+                        flush();
+                    }, settings.drainInterval);
+                }
+                return;
+            }
+
+            if (chunkedMessages.length > 0 && (preferChunk || queueHead === sendQueue.length)) {
+                var chunked = chunkedMessages.shift();
+                websocket.send(nextChunk(chunked));
+                if (chunked.position < chunked.message.length) {
+                    chunkedMessages.push(chunked);
+                }
+                preferChunk = false;
+            } else {
+                websocket.send(sendQueue[queueHead]);
+                sendQueue[queueHead++] = undefined;
+                preferChunk = true;
+            }
+        }
+
+        sendQueue = [];
+        queueHead = 0;
+    }
+
+    /******************************* Replies *******************************/
+
+    /**
+     * Resolve or reject a pending call with the server's reply
+     * @param message   Expected pattern: {"pro":"name","par":[result],"rid":1} or {"pro":"name","err":"..","rid":1}
+     */
+
+    function settleCall(message) {
+        var call = pendingCalls[message.rid];
+
+        if (call !== undefined) {
+            delete pendingCalls[message.rid];
+            clearTimeout(call.timer);
+
+            if (message.err !== undefined) {
+                call.reject(new Error(message.err));
+            } else {
+                call.resolve(message.par[0]);
+            }
+        }
+
+        // Results used to arrive as a call of the procedure with the same name
+        var procedure = localProcedures[message.pro];
+        if (procedure !== undefined && message.par !== undefined && message.par.length > 0) {
+            procedure.apply(self, message.par);
+        }
+    }
+
+    /**
+     * Execute a procedure the server waits for and send back its result. Procedures may return a Promise
+     * @param procedure     Local procedure or undefined if it doesn't exist
+     * @param message       Expected pattern: {"pro":"name","par":[param1],"cid":1}
+     */
+
+    function answerCall(procedure, message) {
+        var callId = message.cid;
+
+        function resolve(result) {
+            enqueue(buildMessage("unijResult", [callId, (result === undefined) ? null : result]));
+        }
+
+        function reject(error) {
+            enqueue(buildMessage("unijError", [callId, formatLog(String((error && error.message) || error))]));
+        }
+
+        if (procedure === undefined) {
+            reject("I don't know procedure with name \"" + message.pro + "\"");
+            return;
+        }
+
+        try {
+            var result = procedure.apply(self, message.par);
+
+            if (result !== null && result !== undefined && typeof result.then === "function") {
+                result.then(resolve, reject);
+            } else {
+                resolve(result);
+            }
+        } catch (error) {
+            reject(error);
+        }
+    }
+
+    function rejectAllCalls(reason) {
+        for (var callId in pendingCalls) {
+            if (pendingCalls.hasOwnProperty(callId)) {
+                clearTimeout(pendingCalls[callId].timer);
+                pendingCalls[callId].reject(new Error(reason));
+            }
+        }
+        pendingCalls = {};
+    }
+
     function buildWebSocketAddress(serverAddress) {
         // For browsers
         if (serverAddress === undefined) {
@@ -124,7 +539,10 @@ function UniJClient(serverAddress) {
      */
 
     function logToServer(message) {
-        self.execute("unijLog", formatLog(message));
+        // Fire and forget, nobody waits for the acknowledgement
+        if (websocket !== undefined) {
+            enqueue(buildMessage("unijLog", [formatLog(message)]));
+        }
     }
 
     /**
@@ -0,0 +1,152 @@
+package unij;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UniJChunksTest {
+
+	private final UniJChunks.Incoming incoming = new UniJChunks.Incoming();
+
+	@Test
+	public void reassemblesChunksInOrder() {
+		assertNull(incoming.add(1, 0, false, "{\"a\":", 100));
+		assertNull(incoming.add(1, 1, false, "[1,", 100));
+		assertEquals("{\"a\":[1,2]}", incoming.add(1, 2, true, "2]}", 100));
+	}
+
+	@Test
+	public void keepsMessagesApart() {
+		assertNull(incoming.add(1, 0, false, "ab", 100));
+		assertNull(incoming.add(2, 0, false, "xy", 100));
+		assertEquals("xyz", incoming.add(2, 1, true, "z", 100));
+		assertEquals("abc", incoming.add(1, 1, true, "c", 100));
+	}
+
+	@Test
+	public void dropsMessageWithChunkOutOfOrder() {
+		incoming.add(1, 0, false, "ab", 100);
+		expectDropped(1, 2, false, "ef", 100);
+
+		// The message is gone, its next chunk doesn't belong anywhere
+		expectDropped(1, 1, true, "cd", 100);
+	}
+
+	@Test
+	public void dropsChunkWithoutStart() {
+		expectDropped(1, 1, true, "cd", 100);
+	}
+
+	@Test
+	public void dropsMessageOverTheLimit() {
+		incoming.add(1, 0, false, "abcd", 10);
+		incoming.add(2, 0, false, "efgh", 10);
+		expectDropped(2, 1, false, "ijk", 10);
+
+		// Message 1 is untouched and the dropped message released its characters
+		assertEquals("abcdlmnopq", incoming.add(1, 1, true, "lmnopq", 10));
+	}
+
+	@Test
+	public void abandonedMessagesExpire() {
+		long start = 0;
+		incoming.add(1, 0, false, "abcdefgh", 10, start);
+
+		// Still waiting for the rest of message 1
+		expectDropped(2, 0, false, "ijklmnop", 10, start + UniJChunks.PARTIAL_TIMEOUT_NANOS - 1);
+
+		long later = start + UniJChunks.PARTIAL_TIMEOUT_NANOS;
+		assertNull(incoming.add(3, 0, false, "ijklmnop", 10, later));
+		expectDropped(1, 1, true, "z", 10, later);
+	}
+
+	@Test
+	public void activeMessagesDontExpire() {
+		long halfTimeout = UniJChunks.PARTIAL_TIMEOUT_NANOS / 2;
+		incoming.add(1, 0, false, "ab", 100, 0);
+		incoming.add(1, 1, false, "cd", 100, halfTimeout);
+		assertEquals("abcdef", incoming.add(1, 2, true, "ef", 100, 2 * halfTimeout));
+	}
+
+	@Test
+	public void completedMessagesReleaseTheirCharacters() {
+		for (int id = 0; id < 5; id++) {
+			incoming.add(id, 0, false, "12345", 10);
+			assertEquals("1234567890", incoming.add(id, 1, true, "67890", 10));
+		}
+	}
+
+	@Test
+	public void outgoingChunksRespectTheSize() {
+		List<String> slices = split("abcdefghij", 4);
+		assertEquals(3, slices.size());
+		assertEquals("abcdefghij", String.join("", slices));
+		assertEquals("abcd", slices.get(0));
+	}
+
+	@Test
+	public void outgoingChunksKeepSurrogatePairsTogether() {
+		// U+1F600 is a surrogate pair, the first chunk would end between its halves
+		String message = "ab\uD83D\uDE00cd\uD83D\uDE00";
+		List<String> slices = split(message, 3);
+
+		for (String slice : slices) {
+			assertFalse(Character.isHighSurrogate(slice.charAt(slice.length() - 1)));
+			assertFalse(Character.isLowSurrogate(slice.charAt(0)));
+		}
+		assertEquals(message, String.join("", slices));
+	}
+
+	@Test
+	public void outgoingChunksEscapeAndMarkTheLastChunk() {
+		UniJChunks.Outgoing outgoing = new UniJChunks.Outgoing(7, "test", "a\"b", 2, null);
+
+		assertEquals("{\"pro\":\"unijChunk\",\"par\":[7,0,false,\"a\\\"\"]}", outgoing.nextChunk());
+		assertTrue(outgoing.hasNext());
+		assertEquals("{\"pro\":\"unijChunk\",\"par\":[7,1,true,\"b\"]}", outgoing.nextChunk());
+		assertFalse(outgoing.hasNext());
+	}
+
+	/**
+	 * Split a message and reassemble the slices the way a client receives them
+	 */
+
+	private static List<String> split(String message, int chunkSize) {
+		UniJChunks.Outgoing outgoing = new UniJChunks.Outgoing(1, "test", message, chunkSize, null);
+		UniJChunks.Incoming receiver = new UniJChunks.Incoming();
+		List<String> slices = new ArrayList<>();
+		String complete = null;
+
+		for (int index = 0; outgoing.hasNext(); index++) {
+			String chunk = outgoing.nextChunk();
+			int sliceStart = chunk.indexOf(",\"", chunk.indexOf('[')) + 2;
+			String slice = chunk.substring(sliceStart, chunk.length() - 3)
+					.replace("\\\"", "\"").replace("\\\\", "\\");
+			slices.add(slice);
+			complete = receiver.add(1, index, !outgoing.hasNext(), slice, 100);
+		}
+
+		assertEquals(message, complete);
+		return slices;
+	}
+
+	private void expectDropped(long id, int index, boolean last, String slice, long maxBufferedChars) {
+		expectDropped(id, index, last, slice, maxBufferedChars, System.nanoTime());
+	}
+
+	private void expectDropped(long id, int index, boolean last, String slice, long maxBufferedChars, long now) {
+		try {
+			incoming.add(id, index, last, slice, maxBufferedChars, now);
+			fail("Chunk " + index + " of message " + id + " should have been dropped");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package unij;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UniJLocalClientTest {
+
+	private final List<UniJLocalClient> clients = new ArrayList<>();
+
+	public static class ServerProcedures {
+
+		@Procedure("localTestAdd")
+		static int add(int a, int b) {
+			return a + b;
+		}
+
+		@Procedure("localTestBoom")
+		static String boom() {
+			throw new IllegalStateException("boom");
+		}
+
+		@Procedure("localTestFailureText")
+		static String failureText() {
+			return "Could not execute";
+		}
+	}
+
+	public static class ClientProcedures {
+
+		@Procedure("double")
+		int twice(int value) {
+			return value * 2;
+		}
+
+		@Procedure("boom")
+		int boom() {
+			throw new IllegalStateException("boom");
+		}
+	}
+
+	@BeforeClass
+	public static void addServerProcedures() {
+		UniJ.addProcedure(ServerProcedures.class);
+	}
+
+	@After
+	public void closeClients() {
+		clients.forEach(UniJLocalClient::close);
+	}
+
+	@Test
+	public void callReturnsTheResult() throws Exception {
+		assertEquals(Integer.valueOf(3), connect("direct", false).call(Integer.class, "localTestAdd", 1, 2).get());
+		assertEquals(Integer.valueOf(3), connect("copy", true).call(Integer.class, "localTestAdd", 1, 2).get());
+	}
+
+	@Test
+	public void callFailsIfTheServerProcedureThrows() throws Exception {
+		expectRemoteFailure(connect("direct", false).call(Object.class, "localTestBoom"));
+		expectRemoteFailure(connect("copy", true).call(Object.class, "localTestBoom"));
+	}
+
+	@Test
+	public void callFailsForUnknownProcedures() throws Exception {
+		expectRemoteFailure(connect("direct", false).call(Object.class, "localTestMissing"));
+		expectRemoteFailure(connect("copy", true).call(Object.class, "localTestMissing"));
+	}
+
+	@Test
+	public void failureTextIsAnOrdinaryResult() throws Exception {
+		assertEquals("Could not execute", connect("direct", false).call(String.class, "localTestFailureText").get());
+		assertEquals("Could not execute", connect("copy", true).call(String.class, "localTestFailureText").get());
+	}
+
+	@Test
+	public void serverCallsTheLocalClient() throws Exception {
+		connect("worker", false).addProcedure(new ClientProcedures());
+
+		JsonNode result = UniJ.call("worker", "double", 21).get(1, TimeUnit.SECONDS);
+		assertEquals(42, result.asInt());
+	}
+
+	@Test
+	public void serverCallFailsIfTheLocalProcedureThrows() throws Exception {
+		connect("worker", false).addProcedure(new ClientProcedures());
+
+		expectRemoteFailure(UniJ.call("worker", "boom"));
+	}
+
+	@Test
+	public void closingFreesTheName() {
+		UniJLocalClient client = connect("closing", true);
+		client.close();
+
+		try {
+			connect("closing", true).close();
+		} catch (IllegalArgumentException e) {
+			fail("The name of a closed client should be free again");
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void reservedNameIsRejected() {
+		connect("*", false);
+	}
+
+	private UniJLocalClient connect(String clientName, boolean copyMode) {
+		UniJLocalClient client = UniJ.connectLocalClient(clientName + (copyMode ? "-copy" : ""), copyMode);
+		clients.add(client);
+		return client;
+	}
+
+	private static void expectRemoteFailure(CompletableFuture<?> future) throws Exception {
+		try {
+			future.get(1, TimeUnit.SECONDS);
+			fail("The call should have failed");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RemoteProcedureException);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package unij;
+
+import org.junit.Test;
+
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class UniJOutboxTest {
+
+	// Frames handed to the fake websocket, completed only when a test says so
+	private final List<String> transmitted = new ArrayList<>();
+	private final ArrayDeque<SendHandler> pending = new ArrayDeque<>();
+	private RuntimeException failNext;
+
+	private final UniJOutbox outbox = new UniJOutbox((frame, handler) -> {
+		if (failNext != null) {
+			RuntimeException failure = failNext;
+			failNext = null;
+			throw failure;
+		}
+		transmitted.add(frame.text);
+		pending.addLast(handler);
+	});
+
+	@Test
+	public void onlyFourFramesAreInFlight() {
+		for (int i = 0; i < 10; i++) {
+			add(Priority.NORMAL, "frame" + i);
+		}
+		assertEquals(4, transmitted.size());
+		assertEquals(6, outbox.size());
+
+		completeOne();
+		assertEquals(5, transmitted.size());
+		assertEquals("frame4", transmitted.get(4));
+	}
+
+	@Test
+	public void lanesShareTheConnectionByWeight() {
+		// Keep the websocket busy so the lanes fill up before anything is picked
+		for (int i = 0; i < 4; i++) {
+			add(Priority.NORMAL, "busy");
+		}
+		for (int i = 0; i < 16; i++) {
+			add(Priority.HIGH, "high");
+		}
+		for (int i = 0; i < 8; i++) {
+			add(Priority.NORMAL, "normal");
+		}
+		for (int i = 0; i < 2; i++) {
+			add(Priority.BULK, "bulk");
+		}
+
+		for (int i = 0; i < 13; i++) {
+			completeOne();
+		}
+		List<String> picked = transmitted.subList(4, transmitted.size());
+		assertEquals(8, count(picked, "high"));
+		assertEquals(4, count(picked, "normal"));
+		assertEquals(1, count(picked, "bulk"));
+	}
+
+	@Test
+	public void bulkIsNotStarved() {
+		add(Priority.HIGH, "busy");
+		add(Priority.HIGH, "busy");
+		add(Priority.HIGH, "busy");
+		add(Priority.HIGH, "busy");
+		add(Priority.BULK, "bulk");
+		for (int i = 0; i < 100; i++) {
+			add(Priority.HIGH, "high");
+		}
+
+		for (int i = 0; i < 9; i++) {
+			completeOne();
+		}
+		assertTrue(transmitted.contains("bulk"));
+	}
+
+	@Test
+	public void failedTransmitReleasesItsSlot() {
+		List<SendResult> results = new ArrayList<>();
+		failNext = new IllegalStateException("Session closed");
+		outbox.add(Priority.NORMAL, new UniJOutbox.Frame("test", "lost", null, null, results::add));
+
+		assertEquals(1, results.size());
+		assertFalse(results.get(0).isOK());
+		assertNotNull(results.get(0).getException());
+
+		// All four slots are free again
+		for (int i = 0; i < 4; i++) {
+			add(Priority.NORMAL, "frame" + i);
+		}
+		assertEquals(4, transmitted.size());
+		assertEquals(0, outbox.size());
+	}
+
+	private void add(Priority priority, String text) {
+		outbox.add(priority, new UniJOutbox.Frame("test", text, null, null, null));
+	}
+
+	private void completeOne() {
+		pending.pollFirst().onResult(new SendResult());
+	}
+
+	private static int count(List<String> frames, String text) {
+		int count = 0;
+		for (String frame : frames) {
+			if (frame.equals(text)) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
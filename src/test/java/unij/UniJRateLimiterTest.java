@@ -0,0 +1,79 @@
+package unij;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class UniJRateLimiterTest {
+
+	// 10 calls per second, so a token takes 100ms to refill
+	private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private UniJRateLimiter bucket;
+	private long now;
+
+	@Before
+	public void setUp() {
+		bucket = new UniJRateLimiter(10, 5).newBucket();
+		now = System.nanoTime();
+	}
+
+	@Test
+	public void burstIsAllowedAtOnce() {
+		for (int i = 0; i < 5; i++) {
+			assertEquals(0, bucket.acquire(0, now));
+		}
+		assertEquals(UniJRateLimiter.REJECTED, bucket.acquire(0, now));
+	}
+
+	@Test
+	public void tokensRefillAtTheSustainedRate() {
+		drain();
+
+		assertEquals(UniJRateLimiter.REJECTED, bucket.acquire(0, now + INTERVAL - 1));
+		assertEquals(0, bucket.acquire(0, now + INTERVAL));
+		assertEquals(UniJRateLimiter.REJECTED, bucket.acquire(0, now + INTERVAL));
+	}
+
+	@Test
+	public void quietPeriodRefillsAtMostTheBurst() {
+		drain();
+
+		long later = now + TimeUnit.SECONDS.toNanos(10);
+		for (int i = 0; i < 5; i++) {
+			assertEquals(0, bucket.acquire(0, later));
+		}
+		assertEquals(UniJRateLimiter.REJECTED, bucket.acquire(0, later));
+	}
+
+	@Test
+	public void queuedCallsWaitForTheirToken() {
+		drain();
+
+		long maxWait = INTERVAL + INTERVAL / 2;
+		assertEquals(INTERVAL, bucket.acquire(maxWait, now));
+		assertEquals(UniJRateLimiter.REJECTED, bucket.acquire(maxWait, now));
+		assertEquals(2 * INTERVAL, bucket.acquire(2 * INTERVAL, now));
+	}
+
+	@Test
+	public void peekDoesNotTakeAToken() {
+		for (int i = 0; i < 10; i++) {
+			assertEquals(0, bucket.peek(now));
+		}
+		drain();
+
+		assertEquals(INTERVAL, bucket.peek(now));
+		assertEquals(INTERVAL, bucket.peek(now));
+		assertEquals(0, bucket.peek(now + INTERVAL));
+	}
+
+	private void drain() {
+		for (int i = 0; i < 5; i++) {
+			bucket.acquire(0, now);
+		}
+	}
+}